@@ -0,0 +1,72 @@
+package tapbench;
+
+//import.java//
+
+/**
+ * A class with the v0.1.6 embed in it, the way ./gen-embed puts it
+ * in a test class, so that {@link EmbedBench} has something to call.
+ * The build fills in the markers.
+ */
+public class EmbedHost
+{
+    /** Default constructor. */
+    public EmbedHost() { }
+
+    /** {@return the first test} */
+    public int start ()
+    {
+        return 1;
+    }
+
+    /** {@return how many tests there are} */
+    public int avail ()
+    {
+        return 16;
+    }
+
+    /**
+     * {@return the plan of a test}
+     *
+     * @param test the test number
+     */
+    public int subplan (int test)
+    {
+        return 1;
+    }
+
+    /* Sixteen tests with one assertion each, like RunBench.Suite */
+    /** Test 1. */
+    public void test1 () { pass ("fine"); }
+    /** Test 2. */
+    public void test2 () { pass ("fine"); }
+    /** Test 3. */
+    public void test3 () { pass ("fine"); }
+    /** Test 4. */
+    public void test4 () { pass ("fine"); }
+    /** Test 5. */
+    public void test5 () { pass ("fine"); }
+    /** Test 6. */
+    public void test6 () { pass ("fine"); }
+    /** Test 7. */
+    public void test7 () { pass ("fine"); }
+    /** Test 8. */
+    public void test8 () { pass ("fine"); }
+    /** Test 9. */
+    public void test9 () { pass ("fine"); }
+    /** Test 10. */
+    public void test10 () { pass ("fine"); }
+    /** Test 11. */
+    public void test11 () { pass ("fine"); }
+    /** Test 12. */
+    public void test12 () { pass ("fine"); }
+    /** Test 13. */
+    public void test13 () { pass ("fine"); }
+    /** Test 14. */
+    public void test14 () { pass ("fine"); }
+    /** Test 15. */
+    public void test15 () { pass ("fine"); }
+    /** Test 16. */
+    public void test16 () { pass ("fine"); }
+
+//embed.java//
+}
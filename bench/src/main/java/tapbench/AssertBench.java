@@ -0,0 +1,139 @@
+/*
+ * JMH benchmarks for TAP for Java; see `README' at the top-level
+ * of the repository.
+ *
+ *     Copyright (c) 2025 Ethan Meng <ethan@rapidcow.org>
+ *     Licensed under the Modified 3-Clause BSD License.
+ *     You are free to re-distribute provided that this
+ *     notice and the above copyright header is retained.
+ */
+
+package tapbench;
+
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What one assertion costs: {@code ok()} passing and failing (the
+ * failure walks the stack), {@code is()} on ints and on objects,
+ * {@code is_deeply()}, {@code diag()} and {@code confess()}.  Each
+ * of them goes to a real sink on the null device, in plain TAP,
+ * terse TAP or as an event log, since formatting and writing out
+ * is most of the work.
+ * <p>
+ * Run with {@code -prof gc} for the bytes allocated per assertion
+ * ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssertBench
+{
+    /** The null device. */
+    static final String NULL = System.getProperty("os.name")
+        .startsWith("Windows") ? "NUL" : "/dev/null";
+
+    /** How results are written: {@code tap}, {@code terse}, {@code events}. */
+    @Param({"tap", "terse", "events"})
+    public String sink;
+
+    private TapTest t;
+    private final Integer[] boxes = { 1000, 1000 };
+    private final List<Integer> deep = Arrays.asList(
+        1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16);
+    private final List<Integer> deeper = Arrays.asList(
+        1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16);
+    private final Exception e = new IllegalStateException("bad state");
+    private int i = 0;
+
+    /**
+     * A fresh TapTest for every iteration, so that its
+     * count does not run off to the billions.
+     *
+     * @throws FileNotFoundException if there is no null device
+     */
+    @Setup(Level.Iteration)
+    public void setup () throws FileNotFoundException
+    {
+        t = new TapTest();
+        t.sink(sink.equals("events") ? TapTest.TapSink.events(NULL)
+            : TapTest.TapSink.file(NULL));
+        t.terse(sink.equals("terse"));
+    }
+
+    /** Close the sink (and write out what it still has). */
+    @TearDown(Level.Iteration)
+    public void teardown ()
+    {
+        t.sink().close();
+    }
+
+    /** {@return ok(), passing} */
+    @Benchmark
+    public boolean ok_pass ()
+    {
+        return t.ok (true, "fine");
+    }
+
+    /** {@return ok(), failing; which means a stack trace} */
+    @Benchmark
+    public boolean ok_fail ()
+    {
+        return t.ok (false, "not fine");
+    }
+
+    /** {@return is() on two ints} */
+    @Benchmark
+    public boolean is_int ()
+    {
+        ++i;
+        return t.is (i, i, "same int");
+    }
+
+    /** {@return is() on two objects} */
+    @Benchmark
+    public boolean is_object ()
+    {
+        return t.is (boxes[0], boxes[1], "same object");
+    }
+
+    /** {@return is_deeply() on two short lists} */
+    @Benchmark
+    public boolean is_deeply ()
+    {
+        return t.is_deeply (deep, deeper, "same list");
+    }
+
+    /** diag() with a format. */
+    @Benchmark
+    public void diag ()
+    {
+        t.diag ("seen %d of them", 42);
+    }
+
+    /** confess() a short stack trace. */
+    @Benchmark
+    public void confess ()
+    {
+        t.confess (e);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * JMH benchmarks for TAP for Java; see `README' at the top-level
+ * of the repository.
+ *
+ *     Copyright (c) 2025 Ethan Meng <ethan@rapidcow.org>
+ *     Licensed under the Modified 3-Clause BSD License.
+ *     You are free to re-distribute provided that this
+ *     notice and the above copyright header is retained.
+ */
+
+package tapbench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The same as {@link AssertBench} and {@link RunBench}, but for the
+ * v0.1.6 embed (src/body.java), which prints straight to
+ * {@code System.out}; here that is a stream that throws it all
+ * away.  So the numbers are what the embed costs, not the terminal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmbedBench
+{
+    private PrintStream out, err;
+    private EmbedHost h;
+    private final Exception e = new IllegalStateException("bad state");
+
+    /** Send standard out and error nowhere. */
+    @Setup(Level.Trial)
+    public void hush ()
+    {
+        out = System.out;
+        err = System.err;
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(nowhere);
+        System.setErr(nowhere);
+    }
+
+    /** Put them back. */
+    @TearDown(Level.Trial)
+    public void unhush ()
+    {
+        System.setOut(out);
+        System.setErr(err);
+    }
+
+    /** A fresh host for every iteration. */
+    @Setup(Level.Iteration)
+    public void setup ()
+    {
+        h = new EmbedHost();
+    }
+
+    /** {@return ok(), passing} */
+    @Benchmark
+    public boolean ok_pass ()
+    {
+        return h.ok (true, "fine");
+    }
+
+    /** {@return ok(), failing; which means a stack trace} */
+    @Benchmark
+    public boolean ok_fail ()
+    {
+        return h.ok (false, "not fine");
+    }
+
+    /** is() on two ints (boxed; the embed has no int version). */
+    @Benchmark
+    public void is_int ()
+    {
+        h.is (42, 42, "same int");
+    }
+
+    /** diag() with a format. */
+    @Benchmark
+    public void diag ()
+    {
+        h.diag ("seen %d of them", 42);
+    }
+
+    /** confess() a short stack trace. */
+    @Benchmark
+    public void confess ()
+    {
+        h.confess (e);
+    }
+
+    /** {@return exec() of all sixteen tests, by reflection} */
+    @Benchmark
+    public int exec ()
+    {
+        return new EmbedHost().exec("EmbedHost", new String[0],
+            EmbedHost.class);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * JMH benchmarks for TAP for Java; see `README' at the top-level
+ * of the repository.
+ *
+ *     Copyright (c) 2025 Ethan Meng <ethan@rapidcow.org>
+ *     Licensed under the Modified 3-Clause BSD License.
+ *     You are free to re-distribute provided that this
+ *     notice and the above copyright header is retained.
+ */
+
+package tapbench;
+
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What {@code run()} costs on top of the tests themselves: making
+ * the test object, finding {@code testN} and calling it, and the
+ * subtest around it.  The tests make one assertion each, so this
+ * is nearly all dispatch.  {@code serial} is
+ * {@code run(todo, plan, factory)}; {@code pool} hands the same
+ * to a thread pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RunBench
+{
+    /** Sixteen tests with one assertion each. */
+    public static class Suite
+    {
+        /** Default constructor. */
+        public Suite () { }
+
+        /** @param t where the result goes */
+        public void test1 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test2 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test3 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test4 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test5 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test6 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test7 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test8 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test9 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test10 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test11 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test12 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test13 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test14 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test15 (TapTest t) { t.pass ("fine"); }
+        /** @param t where the result goes */
+        public void test16 (TapTest t) { t.pass ("fine"); }
+    }
+
+    /** How the tests are run: {@code serial} or {@code pool}. */
+    @Param({"serial", "pool"})
+    public String how;
+
+    private final int[] todo = { 1, 2, 3, 4, 5, 6, 7, 8,
+        9, 10, 11, 12, 13, 14, 15, 16 };
+    private final int[] plan = new int[todo.length];
+    private ExecutorService pool;
+    private TapTest t;
+
+    /** Start the pool. */
+    @Setup(Level.Trial)
+    public void start ()
+    {
+        Arrays.fill(plan, 1);
+        pool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Stop the pool. */
+    @TearDown(Level.Trial)
+    public void stop ()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * A fresh TapTest for every iteration.
+     *
+     * @throws FileNotFoundException if there is no null device
+     */
+    @Setup(Level.Iteration)
+    public void setup () throws FileNotFoundException
+    {
+        t = new TapTest();
+        t.sink(TapTest.TapSink.file(AssertBench.NULL));
+    }
+
+    /** Close the sink. */
+    @TearDown(Level.Iteration)
+    public void teardown ()
+    {
+        t.sink().close();
+    }
+
+    /** {@return run() of all sixteen tests} */
+    @Benchmark
+    public int run ()
+    {
+        return how.equals("pool") ? t.run(todo, plan, Suite::new, pool)
+            : t.run(todo, plan, Suite::new);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * JMH benchmarks for TAP for Java; see `README' at the top-level
+ * of the repository.
+ *
+ *     Copyright (c) 2025 Ethan Meng <ethan@rapidcow.org>
+ *     Licensed under the Modified 3-Clause BSD License.
+ *     You are free to re-distribute provided that this
+ *     notice and the above copyright header is retained.
+ */
+
+package tapbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What it costs to work out which tests to run, for a suite of
+ * {@code avail} tests: {@code parse_cmd()}, which writes every test
+ * number out, {@code select()}, which doesn't, and {@code select()}
+ * with a shard, which has to go through them one by one.  The
+ * arguments are the kind a CI job would pass: a few overlapping
+ * ranges, some of them excluded again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectBench
+{
+    /** Number of tests in the suite. */
+    @Param({"1000", "1000000"})
+    public int avail;
+
+    private String[] ranges, shard;
+
+    /** Make up the arguments. */
+    @Setup
+    public void setup ()
+    {
+        int n = avail;
+        ranges = new String[] {
+            "-i", "1.." + n / 2, n * 2 / 3 + ".." + n,
+            "-x", n / 10 + ".." + n / 5, n / 3 + ".." + n * 3 / 4,
+            "-i", n / 8 + ".." + n / 4,
+        };
+        shard = new String[ranges.length + 2];
+        System.arraycopy(ranges, 0, shard, 0, ranges.length);
+        shard[ranges.length] = "--shard";
+        shard[ranges.length + 1] = "3/8";
+    }
+
+    /** {@return parse_cmd(), every test number written out} */
+    @Benchmark
+    public int[] parse_cmd ()
+    {
+        return TapTest.parse_cmd("SelectBench", ranges, 1, avail);
+    }
+
+    /** {@return select(), as ranges} */
+    @Benchmark
+    public int select ()
+    {
+        return TapTest.select("SelectBench", ranges, 1, avail).size();
+    }
+
+    /** {@return select() of one shard in eight} */
+    @Benchmark
+    public int select_shard ()
+    {
+        return TapTest.select("SelectBench", shard, 1, avail).size();
+    }
+}
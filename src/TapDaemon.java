@@ -0,0 +1,714 @@
+/*
+ * A resident JVM for running TAP for Java tests without paying
+ * for a JVM start (and warming up all over again) every time.
+ * It goes along with src/TapTest.java and src/TapHarness.java;
+ * see `Changes' at the top-level of the repository.
+ *
+ *     Copyright (c) 2025 Ethan Meng <ethan@rapidcow.org>
+ *     Licensed under the Modified 3-Clause BSD License.
+ *     You are free to re-distribute provided that this
+ *     notice and the above copyright header is retained.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.StandardProtocolFamily;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps JVMs warm and runs test classes in them on request.
+ * <p>
+ * Start the daemon once with the class path that has TAP for Java
+ * on it (and <i>not</i> your tests):
+ *
+ * <pre>{@literal
+ *  $ java -cp tap TapDaemon --serve &
+ * }</pre>
+ *
+ * then run tests through it, either one at a time or with
+ * {@code TapHarness --daemon <socket>}:
+ *
+ * <pre>{@literal
+ *  $ java -cp tap TapDaemon --cp build FrontendTests 4..4
+ * }</pre>
+ *
+ * The daemon listens on a Unix domain socket that only its owner may
+ * connect to: by default {@code tapdaemon-<user>/socket} in the
+ * temporary directory, where the directory is private, too.  If you
+ * pick another place with {@code --socket}, the socket itself is
+ * still made mode 0600; on systems that don't care about that, make
+ * sure its directory is private as well.
+ * <p>
+ * Every run gets a JVM of its own, which the daemon started ahead
+ * of time in the directory the client runs in (and which has already
+ * loaded {@code TapTest}).  So statics start out clean, relative paths
+ * mean what they would in a cold run, threads a test leaves behind
+ * die with it, and {@code System.exit()} simply exits; what we save
+ * is the JVM start.  Standard out and error are sent back in the
+ * order they were written, and so is the exit status.  Runs don't
+ * have to take turns, either.
+ *
+ * @version 0.2_03
+ * @author Ethan Meng
+ */
+public class TapDaemon
+{
+    /* Frames sent back to the client: a tag byte, then for OUT and
+     * ERR a length and that many bytes, for EXIT the exit status.
+     * A spare JVM writes OUT and ERR frames the same way. */
+
+    /** Frame of standard output. */
+    static final int OUT = 1;
+    /** Frame of standard error. */
+    static final int ERR = 2;
+    /** Last frame; exit status. */
+    static final int EXIT = 0;
+
+    /** Spare JVMs to keep for each directory, by default. */
+    static final int SPARES = 2;
+    /** Directories to keep spare JVMs for. */
+    static final int PLACES = 4;
+
+    /** Spare JVMs, by the directory they run in; oldest first. */
+    private static final Map<String, Deque<Process>> spares =
+        new LinkedHashMap<String, Deque<Process>>(16, 0.75f, true);
+    /** How many spare JVMs to keep for each directory. */
+    private static int keep = SPARES;
+
+    private TapDaemon () { }
+
+    /**
+     * Main function.
+     *
+     * @param args options; see {@code --help}
+     * @throws IOException if the daemon cannot listen,
+     *   or the client cannot reach it
+     */
+    public static void main (String[] args) throws IOException
+    {
+        final String USAGE = "usage: java TapDaemon --serve "
+            + "[--socket <path>] [--spares <n>]\n"
+            + "       java TapDaemon [--socket <path>] [--cp <path>] "
+            + "<class> [<args>...]";
+
+        Path socket = where();
+        boolean serve = false;
+        String classpath = ".";
+
+        int optind = 0;
+        for (; optind < args.length; ++optind) {
+            String opt = args[optind];
+            if (opt.equals("-h") || opt.equals("--help")) {
+                System.out.println(USAGE);
+                return;
+            }
+            else if (opt.equals("--serve")) {
+                serve = true;
+            }
+            else if (opt.equals("--child")) {
+                child();
+                return;
+            }
+            else if (opt.equals("--socket") || opt.equals("--spares")
+                || opt.equals("--cp") || opt.equals("-cp"))
+            {
+                if (++optind == args.length) {
+                    System.err.println(USAGE);
+                    System.exit(2);
+                }
+                if (opt.equals("--socket")) {
+                    socket = Paths.get(args[optind]);
+                }
+                else if (opt.equals("--spares")) {
+                    keep = Integer.parseInt(args[optind]);
+                }
+                else {
+                    classpath = args[optind];
+                }
+            }
+            else {
+                break;
+            }
+        }
+
+        if (serve) {
+            serve(socket);
+            return;
+        }
+        if (optind == args.length) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        List<String> rest = Arrays.asList(args)
+            .subList(optind + 1, args.length);
+        int status = call(socket, classpath, args[optind], rest,
+            (error, bytes) -> {
+                PrintStream s = error ? System.err : System.out;
+                s.write(bytes, 0, bytes.length);
+                s.flush();
+            });
+        System.exit(status);
+    }
+
+    /**
+     * {@return where the daemon listens unless told otherwise}
+     */
+    static Path where ()
+    {
+        return Paths.get(System.getProperty("java.io.tmpdir"),
+            "tapdaemon-" + System.getProperty("user.name"), "socket");
+    }
+
+    /**
+     * Run a test class through the daemon, in our working directory.
+     *
+     * @param socket where the daemon listens
+     * @param classpath class path of the test
+     * @param name name of the test class
+     * @param args arguments to its {@code main}
+     * @param output gets every chunk of output, in order: true
+     *   for standard error, false for standard out
+     * @return exit status of the test
+     * @throws IOException if we lose the daemon
+     */
+    static int call (Path socket, String classpath, String name,
+        List<String> args, BiConsumer<Boolean, byte[]> output)
+        throws IOException
+    {
+        try (SocketChannel s = SocketChannel.open(
+                UnixDomainSocketAddress.of(socket)))
+        {
+            DataOutputStream req = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(s)));
+            /* The daemon may well be somewhere else */
+            List<String> paths = new ArrayList<String>();
+            for (String path : classpath.split(File.pathSeparator)) {
+                paths.add(new File(path).getAbsolutePath());
+            }
+            req.writeUTF(System.getProperty("user.dir"));
+            req.writeUTF(String.join(File.pathSeparator, paths));
+            req.writeUTF(name);
+            req.writeInt(args.size());
+            for (String a : args) {
+                req.writeUTF(a);
+            }
+            req.flush();
+
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(s)));
+            for (;;) {
+                int tag = in.readUnsignedByte();
+                if (tag == EXIT) {
+                    return in.readInt();
+                }
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                output.accept(tag == ERR, bytes);
+            }
+        }
+    }
+
+    /**
+     * Listen on {@code socket} and serve run requests until we are
+     * killed.
+     *
+     * @param socket where to listen
+     * @throws IOException if we can't
+     */
+    private static void serve (Path socket) throws IOException
+    {
+        socket = socket.toAbsolutePath();
+        try (ServerSocketChannel server = listen(socket)) {
+            Path bound = socket;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(bound);
+                }
+                catch (IOException e) {
+                    /* someone else's problem now */
+                }
+                synchronized (spares) {
+                    for (Deque<Process> ps : spares.values()) {
+                        ps.forEach(Process::destroy);
+                    }
+                }
+            }));
+            System.out.println("TapDaemon listening on " + socket);
+            top_up(System.getProperty("user.dir"));
+            for (;;) {
+                SocketChannel s = server.accept();
+                Thread t = new Thread(() -> handle(s), "TapDaemon client");
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+    }
+
+    /**
+     * Bind a socket that nobody else can connect to.  The socket
+     * is made in a private directory and given mode 0600 there, and
+     * only then moved to {@code socket}, so there is no moment when
+     * anybody could get in.
+     *
+     * @param socket where to listen
+     * @return the server socket
+     * @throws IOException if we can't
+     */
+    private static ServerSocketChannel listen (Path socket)
+        throws IOException
+    {
+        Set<PosixFilePermission> rwx = PosixFilePermissions
+            .fromString("rwx------");
+        Path dir = socket.getParent();
+        if (socket.equals(where().toAbsolutePath())) {
+            if (!Files.isDirectory(dir)) {
+                Files.createDirectory(dir,
+                    PosixFilePermissions.asFileAttribute(rwx));
+            }
+            if (!Files.getPosixFilePermissions(dir).equals(rwx)
+                || !Files.getOwner(dir).getName()
+                    .equals(System.getProperty("user.name")))
+            {
+                throw new IOException(dir + " is not private to us");
+            }
+        }
+        if (Files.exists(socket)) {
+            boolean taken;
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(socket))
+                    .close();
+                taken = true;
+            }
+            catch (IOException e) {
+                /* a stale socket; we will take its place */
+                taken = false;
+            }
+            if (taken) {
+                throw new IOException(
+                    "another daemon is listening on " + socket);
+            }
+        }
+
+        Path stage = Files.createTempDirectory(dir, ".tapdaemon",
+            PosixFilePermissions.asFileAttribute(rwx));
+        Path made = stage.resolve("socket");
+        ServerSocketChannel server =
+            ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(made));
+            Files.setPosixFilePermissions(made,
+                PosixFilePermissions.fromString("rw-------"));
+            Files.move(made, socket, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            server.close();
+            Files.deleteIfExists(made);
+            throw e;
+        }
+        finally {
+            Files.deleteIfExists(stage);
+        }
+        return server;
+    }
+
+    /**
+     * Serve one run request.
+     *
+     * @param s connection to the client
+     */
+    private static void handle (SocketChannel s)
+    {
+        Process p = null;
+        try (s) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(s)));
+            String cwd = in.readUTF();
+            String classpath = in.readUTF();
+            String name = in.readUTF();
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; ++i) {
+                args[i] = in.readUTF();
+            }
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(s)));
+
+            int status;
+            try {
+                p = take(cwd);
+            }
+            catch (IOException e) {
+                byte[] why = ("Error: cannot start a JVM in " + cwd
+                    + ": " + e.getMessage() + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+                out.writeByte(ERR);
+                out.writeInt(why.length);
+                out.write(why);
+                out.writeByte(EXIT);
+                out.writeInt(1);
+                out.flush();
+                return;
+            }
+
+            try (DataOutputStream req = new DataOutputStream(
+                    new BufferedOutputStream(p.getOutputStream())))
+            {
+                req.writeUTF(classpath);
+                req.writeUTF(name);
+                req.writeInt(args.length);
+                for (String a : args) {
+                    req.writeUTF(a);
+                }
+            }
+            relay(p, out);
+            status = p.waitFor();
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+        catch (IOException e) {
+            System.err.println("TapDaemon: lost a client: "
+                + e.getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            if (p != null) {
+                p.destroy();
+            }
+        }
+    }
+
+    /**
+     * Pass on what a JVM says, frame by frame, until it exits.
+     *
+     * @param p the JVM
+     * @param out the client
+     * @throws IOException if we lose the client
+     */
+    private static void relay (Process p, DataOutputStream out)
+        throws IOException
+    {
+        DataInputStream from = new DataInputStream(
+            new BufferedInputStream(p.getInputStream()));
+        for (;;) {
+            int tag;
+            byte[] bytes;
+            try {
+                tag = from.read();
+                if (tag < 0) {
+                    return;
+                }
+                bytes = new byte[from.readInt()];
+                from.readFully(bytes);
+            }
+            catch (EOFException e) {
+                /* It died in the middle of a frame */
+                return;
+            }
+            out.writeByte(tag);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.flush();
+        }
+    }
+
+    /**
+     * Get a JVM waiting in {@code cwd}, and start another one to take
+     * its place.  If none is waiting, we have to start one now.
+     *
+     * @param cwd where it should run
+     * @return the JVM
+     * @throws IOException if we can't start one
+     */
+    private static Process take (String cwd) throws IOException
+    {
+        Process p = null;
+        synchronized (spares) {
+            Deque<Process> ps = spares.get(cwd);
+            while (ps != null && !ps.isEmpty() && p == null) {
+                p = ps.poll();
+                if (!p.isAlive()) {
+                    p = null;
+                }
+            }
+        }
+        if (p == null) {
+            p = spawn(cwd);
+        }
+        top_up(cwd);
+        return p;
+    }
+
+    /**
+     * Start spare JVMs in {@code cwd} until there are enough of them,
+     * and let go of the ones for directories we haven't seen in a while.
+     * Failing to start one is not our problem yet; {@link #take} will
+     * find out soon enough.
+     *
+     * @param cwd where they should run
+     */
+    private static void top_up (String cwd)
+    {
+        synchronized (spares) {
+            Deque<Process> ps = spares.computeIfAbsent(cwd,
+                k -> new ArrayDeque<Process>());
+            try {
+                while (ps.size() < keep) {
+                    ps.add(spawn(cwd));
+                }
+            }
+            catch (IOException e) {
+                /* see above */
+            }
+            Iterator<Deque<Process>> it = spares.values().iterator();
+            while (spares.size() > PLACES && it.hasNext()) {
+                it.next().forEach(Process::destroy);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Start a JVM in {@code cwd} that waits for a test to run.
+     * It gets our class path and reports to our standard error
+     * whatever goes wrong outside of the test.
+     *
+     * @param cwd where it runs
+     * @return the JVM
+     * @throws IOException if we can't
+     */
+    private static Process spawn (String cwd) throws IOException
+    {
+        ProcessBuilder b = new ProcessBuilder(
+            System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java",
+            "-cp", System.getProperty("java.class.path"),
+            TapDaemon.class.getName(), "--child");
+        b.directory(new File(cwd));
+        b.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return b.start();
+    }
+
+    /**
+     * Be a spare JVM: load what we can ahead of time, then wait for
+     * the daemon to tell us what to run, and run it as if we were
+     * {@code java} itself.  Standard out and error go back to the
+     * daemon as frames.
+     *
+     * @throws IOException if the daemon goes away mid-request
+     */
+    private static void child () throws IOException
+    {
+        try {
+            Class.forName(TapTest.class.getName());
+            Class.forName(TapTest.TapSink.class.getName());
+        }
+        catch (ClassNotFoundException e) {
+            /* then the test will have to find it */
+        }
+
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        String classpath;
+        try {
+            classpath = in.readUTF();
+        }
+        catch (EOFException e) {
+            /* The daemon let us go */
+            return;
+        }
+        String name = in.readUTF();
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; ++i) {
+            args[i] = in.readUTF();
+        }
+
+        DataOutputStream frames = new DataOutputStream(
+            new FileOutputStream(FileDescriptor.out));
+        System.setOut(new PrintStream(new Relay(frames, OUT), true));
+        System.setErr(new PrintStream(new Relay(frames, ERR), true));
+        System.setIn(new ByteArrayInputStream(new byte[0]));
+
+        int status = run(classpath, name, args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Run a test class like {@code java} would, on this thread.
+     *
+     * @param classpath class path of the test
+     * @param name name of the test class
+     * @param args arguments to its {@code main}
+     * @return its exit status, if it returns
+     */
+    private static int run (String classpath, String name, String[] args)
+    {
+        List<URL> urls = new ArrayList<URL>();
+        for (String path : classpath.split(File.pathSeparator)) {
+            try {
+                urls.add(new File(path).toURI().toURL());
+            }
+            catch (MalformedURLException e) {
+                System.err.println("Error: bad class path entry " + path);
+                return 1;
+            }
+        }
+
+        /* Not closed: the test's threads may still need it,
+         * and it goes away with us anyway */
+        Loader loader = new Loader(urls.toArray(new URL[0]));
+        Thread.currentThread().setContextClassLoader(loader);
+        Method m;
+        try {
+            m = Class.forName(name, true, loader)
+                .getMethod("main", String[].class);
+        }
+        catch (ClassNotFoundException | NoSuchMethodException e) {
+            System.err.println("Error: Could not find or load "
+                + "main class " + name);
+            System.err.println("Caused by: " + e);
+            return 1;
+        }
+        try {
+            m.invoke(null, (Object) args);
+        }
+        catch (IllegalAccessException e) {
+            System.err.println("Error: " + e);
+            return 1;
+        }
+        catch (InvocationTargetException e) {
+            /* Nothing below main() would be there in
+             * a cold run, so don't show our frames */
+            Throwable c = e.getCause();
+            StackTraceElement[] st = c.getStackTrace();
+            for (int i = st.length - 1; i >= 0; --i) {
+                if (st[i].getClassName().equals(name)
+                    && st[i].getMethodName().equals("main"))
+                {
+                    c.setStackTrace(Arrays.copyOf(st, i + 1));
+                    break;
+                }
+            }
+            System.err.print("Exception in thread \"main\" ");
+            c.printStackTrace();
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * A class loader that looks in the test class path first, so
+     * that test classes come from there (even if the daemon happens
+     * to see them too).  {@link TapTest} is the exception; we have
+     * already loaded ours, and it is just as fresh.
+     */
+    private static final class Loader extends URLClassLoader
+    {
+        Loader (URL[] urls)
+        {
+            super(urls, TapDaemon.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass (String name, boolean resolve)
+            throws ClassNotFoundException
+        {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                String ours = TapTest.class.getName();
+                if (c == null && !name.equals(ours)
+                    && !name.startsWith(ours + "$"))
+                {
+                    try {
+                        c = findClass(name);
+                    }
+                    catch (ClassNotFoundException e) {
+                        /* not in the test class path */
+                    }
+                }
+                if (c == null) {
+                    return super.loadClass(name, resolve);
+                }
+                if (resolve) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Standard out or error of a spare JVM, sent to the daemon
+     * as frames.
+     */
+    private static final class Relay extends OutputStream
+    {
+        private final DataOutputStream to;
+        private final int tag;
+
+        Relay (DataOutputStream to, int tag)
+        {
+            this.to = to;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write (int b) throws IOException
+        {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write (byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0) {
+                return;
+            }
+            synchronized (to) {
+                to.writeByte(tag);
+                to.writeInt(len);
+                to.write(b, off, len);
+                to.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Turns the binary event log of a TapTest.TapSink.events() sink
+ * back into TAP.  It goes along with src/TapTest.java; see
+ * `Changes' at the top-level of the repository.
+ *
+ *     Copyright (c) 2025 Ethan Meng <ethan@rapidcow.org>
+ *     Licensed under the Modified 3-Clause BSD License.
+ *     You are free to re-distribute provided that this
+ *     notice and the above copyright header is retained.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads an event log and prints it as TAP: results and notes to
+ * standard output, diagnoses to standard error, just like the test
+ * would have printed them without the log.  Pipe it into prove(1)
+ * if you like.
+ *
+ * <pre>{@literal
+ *  $ java TapEvents huge.events | tail -n 1
+ *  ok 31415926 - still fine
+ *  $ java TapEvents --failures huge.events
+ *  not ok 271828 - not fine
+ *  # Assertion 271828 `not fine' failed:
+ *  #       at HugeTest.test2(HugeTest.java:42)
+ * }</pre>
+ *
+ * The format is described in TapTest.TapSink, next to the code
+ * that writes it.
+ *
+ * @version 0.2_03
+ * @author Ethan Meng
+ */
+public class TapEvents
+{
+    /* Must be the same as in TapTest.TapSink */
+    private static final byte[] MAGIC = { 'T', 'A', 'P', 'E', 1 };
+    private static final int STRING = 0, TEXT = 1, RESULT = 2;
+
+    /** Only print failures (and what was said about them). */
+    private boolean failures = false;
+    /** Put a timestamp in front of each line. */
+    private boolean times = false;
+
+    /** Strings by id. */
+    private final List<String> strings = new ArrayList<String>();
+    /** Whether we are printing what comes after the last result. */
+    private boolean showing = true;
+    /** With --failures, how far the failed result we are showing is
+     *  indented, while what follows is its YAML block; or -1. */
+    private int block = -1;
+    /** Microseconds since the log started. */
+    private long clock = 0;
+    /** Number of the last result. */
+    private int number = 0;
+
+    /**
+     * Main function.
+     *
+     * @param args options and files; see {@code --help}
+     */
+    public static void main (String[] args)
+    {
+        final String USAGE = "usage: java TapEvents [--failures] [--times] "
+            + "<file>...";
+
+        TapEvents r = new TapEvents();
+        int optind = 0;
+        for (; optind < args.length; ++optind) {
+            switch (args[optind]) {
+            case "-h":
+            case "--help":
+                System.out.println(USAGE);
+                System.out.println();
+                System.out.print("""
+                Prints the TAP in a TapSink.events() log.
+
+                options:
+                  -h, --help        print this help message
+                  -f, --failures    only print failed tests, and the
+                                    diagnoses (or YAML) that follow
+                                    them
+                  -t, --times       put the time since the start (ms)
+                                    in front of each line
+                """.stripIndent());
+                System.exit(0);
+                break;
+            case "-f":
+            case "--failures":
+                r.failures = true;
+                break;
+            case "-t":
+            case "--times":
+                r.times = true;
+                break;
+            default:
+                if (args[optind].startsWith("-")) {
+                    System.err.println("error: unknown option "
+                        + args[optind]);
+                    System.err.println(USAGE);
+                    System.exit(2);
+                }
+            }
+            if (!args[optind].startsWith("-")) {
+                break;
+            }
+        }
+        if (optind == args.length) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        PrintStream out = new PrintStream(
+            new BufferedOutputStream(System.out, 1 << 16),
+            false, StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(
+            new BufferedOutputStream(System.err, 1 << 16),
+            false, StandardCharsets.UTF_8);
+        int status = 0;
+        for (; optind < args.length; ++optind) {
+            try {
+                r.render(args[optind], out, err);
+            }
+            catch (IOException e) {
+                out.flush();
+                err.flush();
+                System.err.println("error: " + args[optind] + ": "
+                    + e.getMessage());
+                status = 1;
+            }
+        }
+        out.flush();
+        err.flush();
+        System.exit(status);
+    }
+
+    /**
+     * Print one log.
+     *
+     * @param path the log
+     * @param out where TAP goes
+     * @param err where diagnoses go
+     * @throws IOException if the log can't be read, or isn't one
+     */
+    private void render (String path, PrintStream out, PrintStream err)
+        throws IOException
+    {
+        strings.clear();
+        strings.add(null);
+        showing = !failures;
+        block = -1;
+        clock = 0;
+        number = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(path), 1 << 16)))
+        {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("not an event log (or not one "
+                    + "I know how to read)");
+            }
+            byte[] rec = new byte[256];
+            for (;;) {
+                int len;
+                try {
+                    len = varint(in);
+                }
+                catch (EOFException e) {
+                    break;
+                }
+                if (len > rec.length) {
+                    rec = new byte[Math.max(len, rec.length * 2)];
+                }
+                in.readFully(rec, 0, len);
+                take(rec, len, out, err);
+            }
+        }
+    }
+
+    /** Where we are in the record being read. */
+    private int at;
+
+    /**
+     * Handle one record.
+     *
+     * @param rec the record
+     * @param len its length
+     * @param out where TAP goes
+     * @param err where diagnoses go
+     * @throws IOException if the record makes no sense
+     */
+    private void take (byte[] rec, int len, PrintStream out, PrintStream err)
+        throws IOException
+    {
+        at = 1;
+        switch (rec[0]) {
+        case STRING: {
+            int id = (int) varint(rec);
+            String text = new String(rec, at, len - at,
+                StandardCharsets.UTF_8);
+            if (id == 0) {
+                strings.set(0, text);
+            }
+            else if (id == strings.size()) {
+                strings.add(text);
+            }
+            else {
+                throw new IOException("string " + id + " out of order");
+            }
+            break;
+        }
+        case TEXT: {
+            clock += varint(rec);
+            boolean error = rec[at++] != 0;
+            String line = string(varint(rec));
+            if (block >= 0 && !error) {
+                /* A YAML block is indented past its result line, and
+                 * ends with "..." */
+                int i = 0;
+                while (i < line.length() && line.charAt(i) == ' ') {
+                    ++i;
+                }
+                if (i > block) {
+                    out.println(stamp() + line);
+                    if (line.startsWith("...", i)) {
+                        block = -1;
+                    }
+                    break;
+                }
+                block = -1;
+            }
+            /* Notes in between are not about the failure */
+            if (showing && (error || !failures)) {
+                (error && !failures ? err : out).println(stamp() + line);
+            }
+            break;
+        }
+        case RESULT: {
+            clock += varint(rec);
+            int flags = rec[at++];
+            boolean ok = (flags & 1) != 0;
+            int step = (int) varint(rec);
+            number += step >>> 1 ^ -(step & 1);
+            String tail = string(varint(rec));
+            /* TODO and SKIP are the ones with a directive */
+            showing = !failures || !ok && !tail.startsWith(" # ");
+            block = failures && showing ? 4 * (flags >> 1) : -1;
+            if (showing) {
+                out.println(stamp() + " ".repeat(4 * (flags >> 1))
+                    + (ok ? "ok " : "not ok ") + number + tail);
+            }
+            break;
+        }
+        default:
+            throw new IOException("unknown record type " + rec[0]);
+        }
+    }
+
+    /**
+     * Look up a string.
+     *
+     * @param id its id
+     * @return the string
+     * @throws IOException if there is no such string
+     */
+    private String string (long id) throws IOException
+    {
+        if (id >= strings.size() || strings.get((int) id) == null) {
+            throw new IOException("string " + id + " is not defined");
+        }
+        return strings.get((int) id);
+    }
+
+    /** {@return the time, if we are printing times} */
+    private String stamp ()
+    {
+        if (!times) {
+            return "";
+        }
+        return String.format(Locale.ROOT, "[%12.3f] ", clock / 1e3);
+    }
+
+    /**
+     * Read a varint from the record.
+     *
+     * @param rec the record
+     * @return the number
+     */
+    private long varint (byte[] rec)
+    {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = rec[at++];
+            v |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return v;
+    }
+
+    /**
+     * Read a varint from the log itself (a record length).
+     *
+     * @param in the log
+     * @return the number
+     * @throws EOFException if the log ends right here
+     * @throws IOException if the log ends in the middle
+     */
+    private static int varint (DataInputStream in) throws IOException
+    {
+        int v = 0;
+        int shift = 0;
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        for (;;) {
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+            shift += 7;
+            b = in.readUnsignedByte();
+        }
+    }
+}
@@ -0,0 +1,775 @@
+/*
+ * A TAP harness for TAP for Java, so that running a suite does
+ * not need prove(1) (or Perl, for that matter).  It goes along
+ * with src/TapTest.java; see `Changes' at the top-level of the
+ * repository.
+ *
+ *     Copyright (c) 2025 Ethan Meng <ethan@rapidcow.org>
+ *     Licensed under the Modified 3-Clause BSD License.
+ *     You are free to re-distribute provided that this
+ *     notice and the above copyright header is retained.
+ */
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs tests and reads their TAP, like prove(1) does.
+ * Each test is either a Java class with a {@code main} (run as
+ * {@code java -cp CLASSPATH CLASS}), or an executable file
+ * (run as is).  Standard error goes straight through to ours.
+ *
+ * <pre>{@literal
+ *  $ java TapHarness --cp build BinarySearchTree FrontendTests
+ *  BinarySearchTree .. ok
+ *  FrontendTests ..... ok
+ *  All tests successful.
+ *  Files=2, Tests=29,  1 wallclock secs
+ *  Result: PASS
+ * }</pre>
+ *
+ * @version 0.2_03
+ * @author Ethan Meng
+ */
+public class TapHarness
+{
+    /** Command line in front of a class name. */
+    private final List<String> java = new ArrayList<String>();
+    /** Arguments for every test (after {@code ::}). */
+    private final List<String> extra = new ArrayList<String>();
+    /** Echo the TAP we read. */
+    private boolean verbose = false;
+    /** How many tests to run at once. */
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    /** Where we remember how long each test took, or null. */
+    private String state = null;
+    /** Run the slowest tests first. */
+    private boolean slow = false;
+    /** Socket of a {@link TapDaemon} to run classes in, or null. */
+    private String daemon = null;
+    /** Set once a test bails out; nothing new starts after that. */
+    private volatile boolean bailing = false;
+
+    private TapHarness (String classpath)
+    {
+        java.add(System.getProperty("java.home")
+            + File.separator + "bin" + File.separator + "java");
+        java.add("-cp");
+        java.add(classpath);
+    }
+
+    /**
+     * Main function.
+     *
+     * @param args options and tests; see {@code --help}
+     */
+    public static void main (String[] args)
+    {
+        final String USAGE = "usage: java TapHarness [-v] [-j <n>] "
+            + "[--state <file> [--slow]] [--daemon <socket>] [--cp <path>] "
+            + "<test>... [:: <args>...]";
+
+        List<String> tests = new ArrayList<String>();
+        List<String> extra = new ArrayList<String>();
+        TapHarness h = new TapHarness(System.getProperty("java.class.path"));
+
+        int optind = 0;
+        for (; optind < args.length; ++optind) {
+            switch (args[optind]) {
+            case "-h":
+            case "--help":
+                System.out.println(USAGE);
+                System.out.println();
+                System.out.print("""
+                This is the TAP for Java harness.
+
+                Each <test> is a class name or an executable file.
+
+                options:
+                  -h, --help        print this help message
+                  -v, --verbose     print all test lines
+                  -j, --jobs <n>    run n tests at once
+                                    (default: number of processors)
+                  --state <file>    remember how long tests took
+                  --slow            run the slowest tests first
+                                    (needs --state)
+                  --daemon <socket> run classes in the TapDaemon
+                                    listening on this socket
+                  --cp <path>       class path for the tests
+                                    (default: our own class path)
+                  :: <args>...      pass the rest to every test
+                """.stripIndent());
+                System.exit(0);
+                break;
+            case "-v":
+            case "--verbose":
+                h.verbose = true;
+                break;
+            case "--slow":
+                h.slow = true;
+                break;
+            case "-j":
+            case "--jobs":
+                String jobs = optarg(args, ++optind, USAGE);
+                try {
+                    h.jobs = Integer.parseInt(jobs);
+                }
+                catch (NumberFormatException e) {
+                    System.err.println("error: bad number of jobs " + jobs);
+                    System.exit(2);
+                }
+                break;
+            case "--state":
+                h.state = optarg(args, ++optind, USAGE);
+                break;
+            case "--daemon":
+                h.daemon = optarg(args, ++optind, USAGE);
+                break;
+            case "-cp":
+            case "--cp":
+                h.java.set(2, optarg(args, ++optind, USAGE));
+                break;
+            case "::":
+                extra.addAll(Arrays.asList(args)
+                    .subList(optind + 1, args.length));
+                optind = args.length;
+                break;
+            default:
+                tests.add(args[optind]);
+            }
+        }
+        if (tests.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        h.extra.addAll(extra);
+        System.exit(h.runtests(tests) ? 0 : 1);
+    }
+
+    /**
+     * Get the argument of an option, or die trying.
+     *
+     * @param args argument vector
+     * @param optind where the argument should be
+     * @param usage what to say if it isn't there
+     * @return the argument
+     */
+    private static String optarg (String[] args, int optind, String usage)
+    {
+        if (optind >= args.length) {
+            System.err.println(usage);
+            System.exit(2);
+        }
+        return args[optind];
+    }
+
+    /**
+     * Run tests and report on them.  With more than one job, each
+     * test's output (and standard error) is kept until it is done,
+     * then printed in one piece, in the order the tests finish.
+     *
+     * @param tests names of the tests
+     * @return whether all of them passed
+     */
+    private boolean runtests (List<String> tests)
+    {
+        long start = System.nanoTime();
+        int width = 0;
+        for (String name : tests) {
+            width = Math.max(width, name.length());
+        }
+
+        Map<String, Long> took = load();
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < tests.size(); ++i) {
+            order.add(i);
+        }
+        if (slow) {
+            /* Tests we've never seen might be slow too; put them first */
+            order.sort(Comparator.comparingLong((Integer i) ->
+                took.getOrDefault(tests.get(i), Long.MAX_VALUE)).reversed());
+        }
+
+        Result[] done = new Result[tests.size()];
+        if (jobs <= 1) {
+            for (int i : order) {
+                String name = tests.get(i);
+                System.out.print(name + " "
+                    + ".".repeat(width - name.length() + 2)
+                    + (verbose ? "\n" : " "));
+                System.out.flush();
+                Result r = runtest(name, true);
+                done[i] = r;
+                System.out.println(r.status());
+                if (r.bailed != null) {
+                    break;
+                }
+            }
+        }
+        else {
+            ExecutorService pool = Executors.newFixedThreadPool(jobs);
+            CompletionService<Result> running =
+                new ExecutorCompletionService<Result>(pool);
+            for (int i : order) {
+                running.submit(() -> {
+                    if (bailing) {
+                        return null;
+                    }
+                    Result r = runtest(tests.get(i), false);
+                    done[i] = r;
+                    return r;
+                });
+            }
+            for (int i = 0; i < order.size(); ++i) {
+                Result r;
+                try {
+                    r = running.take().get();
+                }
+                catch (InterruptedException | ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+                if (r == null) {
+                    continue;
+                }
+                System.out.print(r.name + " "
+                    + ".".repeat(width - r.name.length() + 2)
+                    + (r.output.length() > 0 ? "\n" : " "));
+                System.out.print(r.output);
+                System.out.println(r.status());
+            }
+            pool.shutdown();
+        }
+
+        List<Result> results = new ArrayList<Result>();
+        for (Result r : done) {
+            if (r != null) {
+                results.add(r);
+                if (r.bailed != null) {
+                    System.out.println("Bailout called.  "
+                        + "Further testing stopped:  " + r.bailed);
+                }
+                took.put(r.name, r.nanos);
+            }
+        }
+        save(took);
+        return summarize(results, System.nanoTime() - start);
+    }
+
+    /**
+     * Start a test.
+     *
+     * @param name class name or path of the test
+     * @param live whether standard error goes straight to ours
+     * @return the process
+     * @throws IOException if it won't start
+     */
+    private Process launch (String name, boolean live) throws IOException
+    {
+        List<String> argv = new ArrayList<String>();
+        File f = new File(name);
+        if (!(f.isFile() && f.canExecute())) {
+            argv.addAll(java);
+        }
+        argv.add(name);
+        argv.addAll(extra);
+        ProcessBuilder b = new ProcessBuilder(argv);
+        if (live) {
+            b.redirectError(ProcessBuilder.Redirect.INHERIT);
+        }
+        return b.start();
+    }
+
+    /**
+     * Run a test and read its TAP as it comes.
+     *
+     * @param name class name or path of the test
+     * @param live whether to print as we go; otherwise, whatever
+     *   should be printed is kept in {@link Result#output}
+     * @return how it went
+     */
+    private Result runtest (String name, boolean live)
+    {
+        File f = new File(name);
+        if (daemon != null && !(f.isFile() && f.canExecute())) {
+            return runwarm(name, live);
+        }
+
+        Result r = new Result(name);
+        long start = System.nanoTime();
+        Process p;
+        try {
+            p = launch(name, live);
+        }
+        catch (IOException e) {
+            r.errors.add("Could not start: " + e.getMessage());
+            return r;
+        }
+
+        /* Someone has to drain standard error while we read
+         * standard out, or the test might block on a full pipe. */
+        StringBuilder err = new StringBuilder();
+        Thread drain = null;
+        if (!live) {
+            drain = new Thread(() -> {
+                try {
+                    err.append(new String(p.getErrorStream().readAllBytes(),
+                        StandardCharsets.UTF_8));
+                }
+                catch (IOException e) {
+                    err.append("error reading standard error: "
+                        + e.getMessage() + "\n");
+                }
+            });
+            drain.start();
+        }
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                p.getInputStream(), StandardCharsets.UTF_8)))
+        {
+            p.getOutputStream().close();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (take(r, line, live)) {
+                    p.destroy();
+                    break;
+                }
+            }
+            r.exit = p.waitFor();
+            if (drain != null) {
+                drain.join();
+            }
+        }
+        catch (IOException e) {
+            r.errors.add("Error reading output: " + e.getMessage());
+            p.destroy();
+        }
+        catch (InterruptedException e) {
+            p.destroy();
+            Thread.currentThread().interrupt();
+        }
+        synchronized (err) {
+            r.output.append(err);
+        }
+        r.nanos = System.nanoTime() - start;
+        r.finish();
+        return r;
+    }
+
+    /**
+     * Run a test class in the daemon, and read its TAP as it comes.
+     *
+     * @param name class name of the test
+     * @param live whether to print as we go; otherwise, whatever
+     *   should be printed is kept in {@link Result#output}
+     * @return how it went
+     */
+    private Result runwarm (String name, boolean live)
+    {
+        Result r = new Result(name);
+        long start = System.nanoTime();
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        try {
+            r.exit = TapDaemon.call(Paths.get(daemon), java.get(2), name, extra,
+                (error, bytes) -> {
+                    if (error) {
+                        if (live) {
+                            System.err.write(bytes, 0, bytes.length);
+                            System.err.flush();
+                        }
+                        else {
+                            r.output.append(new String(bytes,
+                                StandardCharsets.UTF_8));
+                        }
+                        return;
+                    }
+                    for (byte b : bytes) {
+                        if (b != '\n') {
+                            pending.write(b);
+                            continue;
+                        }
+                        String line = pending.toString(StandardCharsets.UTF_8);
+                        pending.reset();
+                        if (line.endsWith("\r")) {
+                            line = line.substring(0, line.length() - 1);
+                        }
+                        take(r, line, live);
+                    }
+                });
+            if (pending.size() > 0) {
+                take(r, pending.toString(StandardCharsets.UTF_8), live);
+            }
+        }
+        catch (IOException e) {
+            r.errors.add("Lost the daemon: " + e.getMessage());
+        }
+        r.nanos = System.nanoTime() - start;
+        r.finish();
+        return r;
+    }
+
+    /**
+     * Deal with a line of TAP from a test.
+     *
+     * @param r the test
+     * @param line the line, without the line terminator
+     * @param live whether to print it now, or keep it for later
+     * @return whether the test just bailed out
+     */
+    private boolean take (Result r, String line, boolean live)
+    {
+        if (verbose) {
+            if (live) {
+                System.out.println(line);
+            }
+            else {
+                r.output.append(line).append('\n');
+            }
+        }
+        boolean bailed = r.bailed != null;
+        r.parse(line);
+        if (!bailed && r.bailed != null) {
+            bailing = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read the state file.
+     *
+     * @return how long each test took last time (ns), by name
+     */
+    private Map<String, Long> load ()
+    {
+        Map<String, Long> took = new HashMap<String, Long>();
+        if (state == null || !new File(state).isFile()) {
+            return took;
+        }
+        try {
+            for (String line : Files.readAllLines(Paths.get(state),
+                    StandardCharsets.UTF_8)) {
+                String[] f = line.split("\t", 2);
+                if (f.length == 2) {
+                    try {
+                        took.put(f[1], Long.parseLong(f[0]));
+                    }
+                    catch (NumberFormatException e) {
+                        /* not ours; never mind */
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            System.err.println("warning: cannot read " + state
+                + ": " + e.getMessage());
+        }
+        return took;
+    }
+
+    /**
+     * Write the state file: one {@code nanoseconds TAB name} per line.
+     *
+     * @param took how long each test took (ns), by name
+     */
+    private void save (Map<String, Long> took)
+    {
+        if (state == null) {
+            return;
+        }
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, Long> e : took.entrySet()) {
+            lines.add(e.getValue() + "\t" + e.getKey());
+        }
+        try {
+            Files.write(Paths.get(state), lines, StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            System.err.println("warning: cannot write " + state
+                + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Print the summary report, like prove(1) does.
+     *
+     * @param results how each test went
+     * @param nanos how long it all took
+     * @return whether everything passed
+     */
+    private static boolean summarize (List<Result> results, long nanos)
+    {
+        int tests = 0;
+        boolean good = true;
+        List<Result> bad = new ArrayList<Result>();
+        for (Result r : results) {
+            tests += r.seen;
+            if (!r.passed() || !r.todo.isEmpty()) {
+                bad.add(r);
+            }
+            good &= r.passed();
+        }
+
+        if (good && bad.isEmpty()) {
+            System.out.println("All tests successful.");
+        }
+        else {
+            System.out.println();
+            System.out.println("Test Summary Report");
+            System.out.println("-------------------");
+            for (Result r : bad) {
+                System.out.printf("%s (Exit: %d Tests: %d Failed: %d)%n",
+                    r.name, r.exit, r.seen, r.failed.size());
+                if (!r.failed.isEmpty()) {
+                    System.out.println("  Failed test"
+                        + (r.failed.size() == 1 ? ":  " : "s:  ")
+                        + ranges(r.failed));
+                }
+                if (!r.todo.isEmpty()) {
+                    System.out.println("  TODO passed:   " + ranges(r.todo));
+                }
+                if (r.exit != 0) {
+                    System.out.println("  Non-zero exit status: " + r.exit
+                        + explain(r.exit));
+                }
+                for (String e : r.errors) {
+                    System.out.println("  Parse errors: " + e);
+                }
+            }
+        }
+        System.out.printf("Files=%d, Tests=%d, %2d wallclock secs%n",
+            results.size(), tests, nanos / 1_000_000_000L);
+        System.out.println("Result: " + (good ? "PASS" : "FAIL"));
+        return good;
+    }
+
+    /** The EX_* flags of {@link TapTest}, and what to call them. */
+    private static final int[] EX_FLAGS = {
+        TapTest.EX_BADPLAN, TapTest.EX_NOTMETH, TapTest.EX_BADMETH,
+        TapTest.EX_BADINIT, TapTest.EX_BADCALL, TapTest.EX_ERRINIT,
+        TapTest.EX_TIMEOUT,
+    };
+    private static final String[] EX_NAMES = {
+        "bad subplan", "test method not found", "runtime exception",
+        "static initializer error", "invocation error",
+        "constructor error", "timed out",
+    };
+
+    /**
+     * Spell out an exit status made of {@link TapTest}'s EX_* flags.
+     *
+     * @param exit exit status of a test
+     * @return something like {@code " (runtime exception)"}, or
+     *   nothing if it doesn't look like EX_* flags at all
+     */
+    private static String explain (int exit)
+    {
+        List<String> names = new ArrayList<String>();
+        int rest = exit;
+        for (int i = 0; i < EX_FLAGS.length; ++i) {
+            if ((exit & EX_FLAGS[i]) != 0) {
+                names.add(EX_NAMES[i]);
+                rest &= ~EX_FLAGS[i];
+            }
+        }
+        /* A lone EX_BADPLAN is usually masked off (see the howto),
+         * and 1 is what java exits with on an uncaught exception */
+        if (rest != 0 || names.isEmpty() || exit == TapTest.EX_BADPLAN) {
+            return "";
+        }
+        return " (" + String.join(", ", names) + ")";
+    }
+
+    /**
+     * {@return test numbers, with runs collapsed like {@code 3-5, 8}}
+     * @param numbers ascending test numbers
+     */
+    private static String ranges (List<Integer> numbers)
+    {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < numbers.size(); ) {
+            int j = i;
+            while (j + 1 < numbers.size()
+                && numbers.get(j + 1) == numbers.get(j) + 1) {
+                ++j;
+            }
+            if (s.length() > 0) {
+                s.append(", ");
+            }
+            s.append(numbers.get(i));
+            if (j > i) {
+                s.append('-').append(numbers.get(j));
+            }
+            i = j + 1;
+        }
+        return s.toString();
+    }
+
+    /**
+     * What we know about one test, built up a line at a time.
+     * Only the top-level TAP is looked at; comments, YAML blocks
+     * and anything indented (subtests) pass by unnoticed.
+     */
+    static final class Result
+    {
+        private static final Pattern PLAN = Pattern.compile(
+            "1\\.\\.(\\d+)\\s*(?:#\\s*(.*))?");
+        private static final Pattern TEST = Pattern.compile(
+            "(not )?ok\\b\\s*(\\d*)[^#]*(?:#\\s*(\\w*)\\s*(.*))?");
+        private static final Pattern BAIL = Pattern.compile(
+            "Bail out!\\s*(.*)");
+
+        /** Name of the test. */
+        final String name;
+        /** The plan, or -1 if we haven't seen one. */
+        int planned = -1;
+        /** Why everything was skipped, if it was. */
+        String skipall = null;
+        /** Whether the plan came after some tests. */
+        private boolean trailing = false;
+        /** How many test lines we have read. */
+        int seen = 0;
+        /** Numbers of failed tests (not counting TODO ones). */
+        final List<Integer> failed = new ArrayList<Integer>();
+        /** Numbers of TODO tests that passed anyway. */
+        final List<Integer> todo = new ArrayList<Integer>();
+        /** How many tests were skipped. */
+        int skipped = 0;
+        /** Why the test bailed out, if it did. */
+        String bailed = null;
+        /** Everything else that looks wrong. */
+        final List<String> errors = new ArrayList<String>();
+        /** Exit status of the process. */
+        int exit = 0;
+        /** How long it ran. */
+        long nanos = 0;
+        /** What to print about it, if we didn't print as we went. */
+        final StringBuilder output = new StringBuilder();
+
+        Result (String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Read one line of TAP.
+         *
+         * @param line the line, without the line terminator
+         */
+        void parse (String line)
+        {
+            Matcher m;
+            if ((m = TEST.matcher(line)).matches()) {
+                ++seen;
+                if (trailing && planned >= 0) {
+                    errors.add("Plan must be at the beginning "
+                        + "or end of the TAP output");
+                    trailing = false;
+                }
+                int number = seen;
+                if (!m.group(2).isEmpty()) {
+                    try {
+                        number = Integer.parseInt(m.group(2));
+                    }
+                    catch (NumberFormatException e) {
+                        number = -1;
+                    }
+                    if (number != seen && errors.isEmpty()) {
+                        errors.add("Tests out of sequence.  Found ("
+                            + number + ") but expected (" + seen + ")");
+                    }
+                }
+                String directive = m.group(3) == null
+                    ? "" : m.group(3).toUpperCase();
+                boolean ok = m.group(1) == null;
+                if (directive.startsWith("TODO")) {
+                    if (ok) {
+                        todo.add(number);
+                    }
+                }
+                else if (directive.startsWith("SKIP")) {
+                    ++skipped;
+                }
+                else if (!ok) {
+                    failed.add(number);
+                }
+            }
+            else if ((m = PLAN.matcher(line)).matches()) {
+                if (planned >= 0) {
+                    errors.add("More than one plan found in TAP output");
+                    return;
+                }
+                planned = Integer.parseInt(m.group(1));
+                trailing = seen > 0;
+                if (planned == 0 && m.group(2) != null) {
+                    skipall = m.group(2).replaceFirst("(?i)^skip\\S*\\s*", "");
+                }
+            }
+            else if ((m = BAIL.matcher(line)).matches()) {
+                bailed = m.group(1);
+            }
+        }
+
+        /** Check the plan once the test is over. */
+        void finish ()
+        {
+            if (bailed != null) {
+                return;
+            }
+            if (planned < 0) {
+                errors.add("No plan found in TAP output");
+            }
+            else if (planned != seen) {
+                errors.add("Bad plan.  You planned " + planned
+                    + " tests but ran " + seen + ".");
+            }
+        }
+
+        /** {@return whether the test passed} */
+        boolean passed ()
+        {
+            return failed.isEmpty() && errors.isEmpty()
+                && exit == 0 && bailed == null;
+        }
+
+        /** {@return what to print next to the name of the test} */
+        String status ()
+        {
+            if (passed()) {
+                if (skipall != null) {
+                    return "skipped: " + skipall;
+                }
+                return "ok";
+            }
+            if (bailed != null) {
+                return "Bailed out";
+            }
+            if (!failed.isEmpty()) {
+                return "Failed " + failed.size() + "/" + seen + " subtests";
+            }
+            if (exit != 0) {
+                return "Dubious, test returned " + exit;
+            }
+            return errors.get(0);
+        }
+    }
+}
@@ -24,16 +24,66 @@
  * me with a copyright notice already!)
  */
 
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.InvocationTargetException;
 
 /**
@@ -41,7 +91,7 @@ import java.lang.reflect.InvocationTargetException;
  * to use an independent class, as opposed to
  * directed inheritance.
  *
- * @version 0.2_02
+ * @version 0.2_03
  * @author Ethan Meng
  */
 public class TapTest
@@ -113,6 +163,34 @@ public class TapTest
         return ended;
     }
 
+    /** Where our TAP goes.  Shared with subtests in {@link #run}. */
+    private TapSink sink = TapSink.stdout();
+
+    /**
+     * {@return where our output goes}
+     * @since 0.2_03
+     */
+    public TapSink sink ()
+    {
+        return sink;
+    }
+
+    /**
+     * Send all output of this test somewhere else.  Whatever is
+     * still pending in the previous sink is flushed first, so
+     * that nothing we said before gets lost (or reordered).
+     *
+     * @param sink the new destination
+     * @throws NullPointerException if {@code sink} is null
+     * @since 0.2_03
+     */
+    public void sink (TapSink sink)
+    {
+        Objects.requireNonNull(sink);
+        this.sink.flush();
+        this.sink = sink;
+    }
+
     /**
      * Print stack trace of an exception in form of diagnosis.
      *
@@ -159,7 +237,8 @@ public class TapTest
         }
         this.plan = plan;
         if (this.plan > 0) {
-            System.out.println("1.." + plan);
+            sink.println(false, "1.." + plan);
+            sink.flush();
         }
         return plan;
     }
@@ -194,12 +273,22 @@ public class TapTest
                 "You are in the middle of a subtest -- "
                 + "did you mean to call done_subtest()?");
         }
+        if (timing && slowest > 0 && !took.isEmpty()) {
+            int n = Math.min(slowest, took.size());
+            note ("Slowest %d subtest%s:", n, n == 1 ? "" : "s");
+            took.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue()
+                    .reversed())
+                .limit(n)
+                .forEach(e -> note ("%12s  %s",
+                    millis(e.getValue()), e.getKey()));
+        }
         if (plan == 0) {
             if (count == 0) {
-                System.out.println("1..0 # SKIP No tests defined");
+                sink.println(false, "1..0 # SKIP No tests defined");
             }
             else {
-                System.out.println("1.." + count);
+                sink.println(false, "1.." + count);
             }
         }
         else if (plan > 0 && count != plan) {
@@ -207,9 +296,11 @@ public class TapTest
                 plan, plan == 1 ? "" : "s",
                 count, count == 1 ? "" : "s");
             diag ("Seems like things did not go to plan.");
+            sink.flush();
             return true;
         }
         ended = true;
+        sink.flush();
         return false;
     }
 
@@ -237,7 +328,7 @@ public class TapTest
         }
         int skipper = 0;
         if (plan == 0) {
-            System.out.println("1..0 # SKIP " + reason);
+            sink.println(false, "1..0 # SKIP " + reason);
         }
         else {
             for (; count < plan; ++count) {
@@ -257,7 +348,8 @@ public class TapTest
      */
     public void bail_out (String reason)
     {
-        System.out.println("Bail out! " + reason);
+        sink.println(false, "Bail out! " + reason);
+        sink.flush();
     }
 
     /**
@@ -277,12 +369,12 @@ public class TapTest
      */
     public void diag (String line, Object... args)
     {
-        line = String.format(line, args);
+        line = format(line, args);
         if (line.isBlank()) {
-            System.err.println("#");
+            sink.println(true, indent + "#");
         }
         else {
-            System.err.println("# " + line);
+            sink.println(true, indent + "# " + line);
         }
     }
 
@@ -298,12 +390,12 @@ public class TapTest
      */
     public void note (String line, Object... args)
     {
-        line = String.format(line, args);
+        line = format(line, args);
         if (line.isBlank()) {
-            System.out.println("#");
+            sink.println(false, indent + "#");
         }
         else {
-            System.out.println("# " + line);
+            sink.println(false, indent + "# " + line);
         }
     }
 
@@ -381,50 +473,162 @@ public class TapTest
      */
     public boolean ok (boolean ok, String mess, boolean trace, int stacklevel)
     {
-        String[] reasons = splitlines(mess);
-        boolean unreasonable = reasons.length == 0;
-        boolean is_todo = !unreasonable && reasons[0].contains("TODO");
-        boolean is_skip = !unreasonable && reasons[0].contains("SKIP");
-        StringBuilder chant = new StringBuilder();
-        String number;
-        chant.append(ok ? "ok " : "not ok ");
-        if (origin >= 0) {
-            number = Integer.toString(++count + origin);
+        return check (ok, mess, trace, stacklevel + 1, null);
+    }
+
+    /**
+     * {@link #ok(boolean, String, boolean, int)}, with some structured
+     * diagnosis on the side for the YAML block (see {@link #version}).
+     *
+     * @param ok Are you OK?
+     * @param mess description and diagnosis, as for {@code ok()}
+     * @param trace whether to print diagnosis to the error stream
+     * @param stacklevel stack frames between us and the assertion
+     * @param data more fields for the YAML block, or null
+     * @return Am I okay?
+     */
+    private boolean check (boolean ok, String mess, boolean trace,
+        int stacklevel, Map<String, Object> data)
+    {
+        /* Most descriptions are one line; don't bother
+         * with split() unless there is more to them. */
+        String head;
+        String[] reasons = null;
+        if (mess.indexOf('\n') < 0) {
+            head = mess.isEmpty() ? null : mess;
+        }
+        else {
+            reasons = splitlines(mess);
+            head = reasons.length == 0 ? null : reasons[0];
+        }
+        boolean is_todo = head != null && head.contains("TODO");
+        boolean is_skip = head != null && head.contains("SKIP");
+        boolean quiet = terse && ok && !is_todo && !is_skip;
+        int lines = quiet || reasons == null ? 1 : reasons.length;
+
+        /* Find out where we are while we are still on our own
+         * (and while the stack is still what the caller thinks) */
+        String where = null;
+        if ((trace || lines > 1) && locate) {
+            StackTraceElement at = frame(stacklevel);
+            if (at == null) {
+                where = "Stack trace unavailable "
+                    + "(level " + stacklevel + " out of bounds"
+                    + " for call stack of depth "
+                    + WALKER.walk(Stream::count) + ")";
+            }
+            else {
+                where = "      at " + at;
+            }
+        }
+
+        String tail = "";
+        if (head != null && !quiet) {
+            /* A test name in a loop is usually the very same string
+             * every time around; so we can keep its tail, too.  (If
+             * another thread is just putting it there, we might see
+             * the name without the tail; then we just make another.) */
+            int slot = System.identityHashCode(head) & (tails.length - 2);
+            String[] kept = tails[slot];
+            if (kept == null || kept[0] != head) {
+                /* Each name may be in one of two places */
+                kept = tails[slot + 1];
+            }
+            if (kept != null && kept[0] == head && kept[1] != null) {
+                tail = kept[1];
+            }
+            else {
+                tail = (is_todo || is_skip ? " # " : " - ") + head;
+                tails[slot + 1] = tails[slot];
+                tails[slot] = new String[] { head, tail };
+            }
+        }
+
+        if (concurrent) {
+            synchronized (sink) {
+                tell(ok, tail, head, reasons, lines, is_todo, trace, where,
+                    data);
+            }
         }
         else {
-            number = subtest + "." + (++count);
+            tell(ok, tail, head, reasons, lines, is_todo, trace, where,
+                data);
+        }
+        return ok;
+    }
+
+    /** Test names we made tails for recently, and the tails. */
+    private final String[][] tails = new String[32][];
+
+    /**
+     * The rest of {@link #ok(boolean, String, boolean, int)}: take a
+     * number, print the result, and count it.
+     *
+     * @param ok Are you OK?
+     * @param tail what goes after the number on the result line
+     * @param head the description, or null if there is none
+     * @param reasons all lines of the description, or null if
+     *   there is only the one
+     * @param lines how many of {@code reasons} to print
+     * @param is_todo whether this is a TODO test
+     * @param trace whether to print diagnosis to the error stream
+     * @param where where the assertion came from, or null
+     * @param data more fields for the YAML block, or null
+     */
+    private void tell (boolean ok, String tail, String head,
+        String[] reasons, int lines, boolean is_todo, boolean trace,
+        String where, Map<String, Object> data)
+    {
+        int n;
+        String number = null;
+        if (nested) {
+            n = ++subcount;
         }
-        ++subcount;
-        chant.append(number);
-        if (!unreasonable) {
-            chant.append(is_todo || is_skip ? " # " : " - ");
-            chant.append(reasons[0]);
+        else {
+            ++count;
+            n = count + origin;
+            if (origin < 0) {
+                number = subtest + "." + count;
+            }
+            ++subcount;
         }
         if (origin >= 0) {
-            System.out.println(chant.toString());
+            sink.result(ok, n, indent, tail);
         }
         else {
-            note (chant.toString());
-        }
-        String verb = ok ? "passed" : "failed";
-        if (trace || reasons.length > 1) {
-            log (!trace, "Assertion %s `%s' %s:", number, reasons[0], verb);
-            Throwable e = new AssertionError();
-            StackTraceElement[] s = e.getStackTrace();
-            if (s.length < 0 || stacklevel >= s.length) {
-                log (!trace, "Stack trace unavailable "
-                    + "(level " + stacklevel + " out of bounds"
-                    + " for call stack of depth " + s.length + ")");
+            note ("%s", (ok ? "ok " : "not ok ") + number + tail);
+        }
+        /* Most of the time, nobody wants the number as a string */
+        if (number == null && (trace || lines > 1 || timing_each)) {
+            number = Integer.toString(n);
+        }
+        if (version >= 13 && (trace || lines > 1 || data != null)) {
+            yaml (ok, is_todo, head, reasons, lines, where, data);
+        }
+        else {
+            String verb = ok ? "passed" : "failed";
+            if (trace || lines > 1) {
+                log (!trace, "Assertion %s `%s' %s:", number,
+                    head == null ? "" : head, verb);
+                if (where != null) {
+                    log (!trace, "%s", where);
+                }
             }
-            else {
-                log (!trace, "      at " + s[stacklevel]);
+            for (int i = 1; i < lines; ++i) {
+                log (!trace, "%s", reasons[i]);
             }
         }
-        for (int i = 1; i < reasons.length; ++i) {
-            log (!trace, reasons[i]);
+        if (timing_each) {
+            long now = System.nanoTime();
+            note ("Assertion %s took %s", number, millis(now - mark));
+            mark = now;
         }
         if (!(ok || is_todo)) {
-            fail++; subfail++;
+            /* A nested subtest fails as a whole, in done_subtest() */
+            if (!nested) {
+                fail++;
+            }
+            subfail++;
         }
         if (is_todo) {
             if (ok) {
@@ -434,756 +638,4599 @@ public class TapTest
                 subtodo++;
             }
         }
-        return ok;
     }
 
+    /** TAP version we speak; 12 has no version line. */
+    private int version = 12;
+    /** Whether we are in a subtest that is nested (TAP 13 and up). */
+    private boolean nested = false;
+    /** What goes in front of our lines; four spaces in a subtest. */
+    private String indent = "";
+
     /**
-     * Split by line feed, skipping at most one empty
-     * string at the end.
+     * Speak TAP version 13 or 14 instead of plain old TAP.  This prints
+     * the {@code TAP version} line, so call it before anything else.
+     * From then on:
+     * <ul>
+     * <li>The diagnosis of a failed (or TODO) assertion goes into a
+     *   YAML block under it, on standard output, instead of into
+     *   {@code #} lines.  {@link #is} fills in {@code got},
+     *   {@code expected} and their {@code type}s; the location goes
+     *   in {@code at}; any other lines of the description go in
+     *   {@code notes}.</li>
+     * <li>{@link #init_subtest}...{@link #done_subtest} becomes a
+     *   nested subtest: its assertions are indented and numbered
+     *   from 1, followed by its own plan, and then the whole subtest
+     *   counts as one test (named "subtest N") towards our plan.
+     *   Mind that when you write your plans!</li>
+     * </ul>
      * <p>
-     * Note the intentional design to return the empty
-     * list on an empty string <i>or</i> a correctly
-     * line-delimited text containing a single blank line
-     * (i.e. a string with just the line feed itself).
+     * Versions 13 and 14 come out exactly the same.  Test::Harness
+     * (prove) up to at least 3.44 refuses version 14, but it is fine
+     * with 13, and it skips over indented lines either way.
      *
-     * @param text string of text
-     * @return lines
+     * @param version 13 or 14
+     * @throws IllegalArgumentException for any other version
+     * @throws IllegalStateException if we already printed something
+     * @since 0.2_03
      */
-    private static String[] splitlines(String text)
+    public void version (int version)
     {
-        String[] lines = text.split("\\n", -1);
-        int n = lines.length;
-        /* The following guard exists for robustness, but
-         * split(...) returning an empty array on a negative
-         * limit is badly misbehaved, speaking from my tests. */
-        if (n == 0) {
-            return lines;
+        if (version != 13 && version != 14) {
+            throw new IllegalArgumentException(
+                "I only know TAP versions 13 and 14, not " + version);
         }
-        if (lines[n - 1].isEmpty()) {
-            return Arrays.copyOf(lines, n - 1);
+        if (plan > 0 || count > 0 || ended) {
+            throw new IllegalStateException(
+                "The version has to come first");
         }
-        return lines;
+        this.version = version;
+        sink.println(false, "TAP version " + version);
     }
 
     /**
-     * {@code ok(1)} with no trace.
-     * <p>
-     * <b>Changed in 0.2_02</b>: this method now takes format
-     * parameters and returns true.
+     * Print the YAML block of an assertion, in place of the
+     * {@code #} lines {@link #tell} would print otherwise.
      *
-     * @param mess a description
-     * @param args {@link String#format} arguments
-     * @see #ok(boolean, String, boolean, int)
-     * @return true
-     * @since 0.1
+     * @param ok Are you OK?
+     * @param is_todo whether this is a TODO test
+     * @param head the description, or null if there is none
+     * @param reasons all lines of the description, or null
+     * @param lines how many of {@code reasons} to print
+     * @param where where the assertion came from, or null
+     * @param data more fields, or null
      */
-    public boolean pass (String mess, Object... args) {
-        return ok (true, String.format(mess, args), false, 0);
+    private void yaml (boolean ok, boolean is_todo, String head,
+        String[] reasons, int lines, String where,
+        Map<String, Object> data)
+    {
+        Map<String, Object> block = new LinkedHashMap<String, Object>();
+        block.put("message", head == null ? "" : head);
+        block.put("severity", is_todo ? "todo" : ok ? "pass" : "fail");
+        if (data != null) {
+            block.putAll(data);
+        }
+        if (where != null) {
+            /* That's "      at Foo.test3(Foo.java:42)", unless
+             * we couldn't find it */
+            String at = where.strip();
+            block.put("at", at.startsWith("at ") ? at.substring(3) : at);
+        }
+        if (lines > 1) {
+            block.put("notes", String.join("\n",
+                Arrays.asList(reasons).subList(1, lines)));
+        }
+        String pad = indent + "  ";
+        sink.println(false, pad + "---");
+        yaml (pad, block);
+        sink.println(false, pad + "...");
     }
 
     /**
-     * {@code ok(0)} with no trace.
-     * <p>
-     * <b>Changed in 0.2_02</b>: this method now takes format
-     * parameters and returns false.
+     * Print a YAML mapping, one line per key.  The values may be
+     * strings (or anything with a toString(), really), null, or
+     * another mapping of ours, with string keys; a map that came
+     * from the user should be made into a string first.
      *
-     * @param mess a description
-     * @param args {@link String#format} arguments
-     * @see #ok(boolean, String, boolean, int)
-     * @return false
-     * @since 0.1
+     * @param pad what goes in front of each line
+     * @param map the mapping
      */
-    public boolean fail (String mess, Object... args)
+    private void yaml (String pad, Map<String, Object> map)
     {
-        return ok (false, String.format(mess, args), false, 0);
+        for (Map.Entry<String, Object> e : map.entrySet()) {
+            Object v = e.getValue();
+            String key = pad + e.getKey() + ":";
+            if (v instanceof Map) {
+                sink.println(false, key);
+                @SuppressWarnings("unchecked")
+                Map<String, Object> sub = (Map<String, Object>) v;
+                yaml (pad + "  ", sub);
+            }
+            else if (v == null) {
+                sink.println(false, key + " ~");
+            }
+            else if (v.toString().indexOf('\n') >= 0) {
+                /* A literal block, minus the last newline */
+                sink.println(false, key + " |-");
+                for (String line : v.toString().split("\n", -1)) {
+                    sink.println(false, pad + "  " + line);
+                }
+            }
+            else {
+                sink.println(false, key + " " + quote(v.toString()));
+            }
+        }
     }
 
     /**
-     * Pass {@code count} tests.
-     * <p>
-     * <b>Changed in 0.2_02</b>: this method now takes format
-     * parameters and returns an int.
+     * Quote a string the YAML way, in double quotes.
      *
-     * @param count how many tests to pass
-     * @param mess a description
-     * @param args {@link String#format} arguments
-     * @return number of tests passed
-     * @since 0.1.6
+     * @param text what to quote
+     * @return the quoted string
      */
-    public int pass (int count, String mess, Object... args)
+    private static String quote (String text)
     {
-        int w = 0;
-        for (int i = 0; i < count; ++i) {
-            pass (mess, args);
-            w++;
+        StringBuilder q = new StringBuilder(text.length() + 2);
+        q.append('"');
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                q.append('\\').append(c);
+            }
+            else if (c == '\t') {
+                q.append("\\t");
+            }
+            else if (c < 0x20 || c == 0x7f) {
+                q.append(String.format("\\x%02x", (int) c));
+            }
+            else {
+                q.append(c);
+            }
         }
-        return w;
+        return q.append('"').toString();
     }
 
+    /** Whether assertions may come from more than one thread. */
+    private boolean concurrent = false;
+
     /**
-     * Fail {@code count} tests.
+     * Allow assertions from more than one thread at a time.  Each
+     * assertion then takes its number, prints its line (and its
+     * diagnosis) and updates the counts in one go, while holding on
+     * to our {@link #sink}; so numbers come out in order and lines
+     * from different threads never get mixed up.  Formatting the
+     * description and finding its location still happen in parallel.
      * <p>
-     * <b>Changed in 0.2_02</b>: this method now takes format
-     * parameters and returns an int.
+     * The numbers have to be taken while holding the sink anyway,
+     * or prove(1) would see them out of order; the counts come along
+     * for free.  Read {@link #count()} and {@link #failed()} after
+     * your threads are done (joined), not while they are running.
+     * <p>
+     * Plans, subtests and {@link #done_testing} are still meant to
+     * be called from one thread, around the concurrent part.
      *
-     * @param count how many tests to fail
-     * @param mess a description
-     * @param args {@link String#format} arguments
-     * @return number of tests failed
-     * @since 0.1.6
+     * @param concurrent true to turn it on
+     * @since 0.2_03
      */
-    public int fail (int count, String mess, Object... args)
+    public void concurrent (boolean concurrent)
     {
-        int epicfail = 0;
-        for (int i = 0; i < count; ++i) {
-            fail (mess, args);
-            epicfail++;
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * We used to make an exception just to look at one frame of its
+     * stack trace.  This walks only as far as we need to.  Reflection
+     * frames are included, so the levels count the same way they
+     * did in a {@link Throwable#getStackTrace} trace.
+     */
+    private static final StackWalker WALKER = StackWalker.getInstance(
+        StackWalker.Option.SHOW_REFLECT_FRAMES);
+
+    /**
+     * Find a frame on the call stack.
+     *
+     * @param level 0 for whoever called us, 1 for their caller...
+     * @return the frame, or null if the stack isn't that deep
+     */
+    private static StackTraceElement frame (int level)
+    {
+        if (level < 0) {
+            return null;
         }
-        return epicfail;
+        return WALKER.walk(s -> s.skip(level + 1).findFirst())
+            .map(StackWalker.StackFrame::toStackTraceElement)
+            .orElse(null);
     }
 
+    /** Whether to say where a failed assertion came from. */
+    private boolean locate = true;
+
     /**
-     * The much-needed complement to {@link skip_all}.  This skips
-     * a specified number of tests that are marked uniformly with the
-     * same message.
+     * Turn the {@code at Foo.test3(Foo.java:42)} line under failed
+     * (and TODO) assertions on or off.  It is on by default; turn it
+     * off if you fail a lot on purpose and the stack walk shows up in
+     * your profile.
+     *
+     * @param locate whether to look up the caller's location
+     * @since 0.2_03
+     */
+    public void locate (boolean locate)
+    {
+        this.locate = locate;
+    }
+
+    /** Whether passing assertions are printed without descriptions. */
+    private boolean terse = false;
+
+    /**
+     * Stop printing descriptions for passing assertions; they will
+     * just say {@code ok 42}.  Failures, TODO and SKIP still get their
+     * descriptions (and diagnoses) as usual.
      * <p>
-     * <b>Changed in 0.2_02</b>: this method now takes format
-     * parameters and returns an int.
+     * This is what makes the {@link Supplier} flavors of {@link #ok},
+     * {@link #is} and {@link #pass} worth it: when an assertion passes
+     * in terse mode, its description is never even made.  The catch is
+     * that we can't see a TODO in a description we never made, so
+     * use plain strings for your TODO tests.
      *
-     * @param num number of tests to skip; only a positive number of
-     *   {@code num} will be skipped.
-     * @param mess skip message.  Multi-line is not supported.
-     * @param args {@link String#format} arguments
-     * @return number of tests skipped
-     * @since 0.1.6
+     * @param terse true to go quiet, false to go back to normal
+     * @since 0.2_03
      */
-    public int skip (int num, String mess, Object... args)
+    public void terse (boolean terse)
     {
-        int skippy = 0;
-        for (int i = 0; i < num; ++i) {
-            ok (true, String.format("SKIP " + mess, args));
-            skippy++;
-        }
-        return skippy;
+        this.terse = terse;
     }
 
+    /** Whether to say how long subtests take. */
+    private boolean timing = false;
+    /** Whether to say how long each assertion takes, too. */
+    private boolean timing_each = false;
+    /** How many of the slowest subtests done_testing() lists. */
+    private int slowest = 5;
+    /** How long each subtest took, in nanoseconds, by name. */
+    private Map<String, Long> took = new LinkedHashMap<String, Long>();
+    /** When the last assertion (or subtest) was done, for timing_each. */
+    private long mark = System.nanoTime();
+    /** When the current subtest started. */
+    private long substart = 0;
+    /** How long we took, as a test under {@link #run}. */
+    private long spent = 0;
+
     /**
-     * Command-line argument parser.
+     * Say how long each subtest took, as a note after it ends; this
+     * covers both {@link #init_subtest}/{@link #done_subtest} and the
+     * testN methods of {@link #run}.  Then {@link #done_testing} lists
+     * the slowest of them, so you know whom to blame for your CI bill.
+     * <p>
+     * Times are wall clock, from {@link System#nanoTime}.  For tests
+     * run side by side, the clock starts once a test gets its turn on
+     * the pool, so waiting for one is not counted; but time lost to
+     * the tests running next to it is.
      *
-     * @param prog argument 0; program name
-     * @param args argument vector from argument 1 and on
-     * @param start starting number of our tests
-     * @param avail number of tests we have
-     * @return tests we should run; or an array of a
-     *   single negative number as error status
-     * @throws IllegalArgumentException if {@code start}
-     *   is negative, and other weird stuff happens
-     * @since 0.2_00
+     * @param timing true to turn it on
+     * @since 0.2_03
      */
-    public static int[] parse_cmd (String prog,
-        String[] args, int start, int avail)
+    public void timing (boolean timing)
     {
-        if (start < 0) {
-            /* "test-n" would not be a valid Java
-             * identifier; don't let that happen. */
-            throw new IllegalArgumentException(
-                "first test cannot be negative (you "
-                + "gave me " + start + ")");
-        }
-        int offset = start - 1;
+        timing (timing, false);
+    }
 
-        int optind = 0;
-        final String USAGE = String.format(
-            "usage: %s [[-i] <range>...] [-x <range>...]",
-            prog
-        );
+    /**
+     * {@link #timing(boolean)}, optionally with a note after every
+     * single assertion saying how long it has been since the one
+     * before it (or since the subtest started).  That is a lot of
+     * notes; prove(1) hides them unless you ask for -v.
+     *
+     * @param timing true to time subtests
+     * @param each true to time assertions as well
+     * @since 0.2_03
+     */
+    public void timing (boolean timing, boolean each)
+    {
+        this.timing = timing || each;
+        this.timing_each = each;
+        mark = System.nanoTime();
+    }
 
-        // options
+    /**
+     * How many subtests {@link #done_testing} lists when
+     * {@link #timing(boolean)} is on.  The default is 5.
+     *
+     * @param n the number of subtests to list; 0 for none
+     * @since 0.2_03
+     */
+    public void slowest (int n)
+    {
+        slowest = n;
+    }
 
-        int[] rangeLo = new int[args.length];
-        int[] rangeHi = new int[args.length];
-        int rangeCount = 0;
-        // include? +1 exclude? -1
-        int color = +1;
+    /**
+     * Write down how long a subtest took, and say so.
+     *
+     * @param name what to call it
+     * @param nanos how long it took
+     */
+    private void clock (String name, long nanos)
+    {
+        took.merge(name, nanos, Long::sum);
+        note ("%s took %s", name, millis(nanos));
+    }
 
-        for (; optind < args.length; ++optind) {
-            switch (args[optind]) {
-            case "-h":
-            case "--help":
-                System.out.println(USAGE);
-                System.out.println();
-                System.out.print("""
-                This is TAP for Java.
+    /**
+     * Format a duration for humans.
+     *
+     * @param nanos a duration in nanoseconds
+     * @return the same in milliseconds, like {@code "12.345 ms"}
+     */
+    private static String millis (long nanos)
+    {
+        return String.format(Locale.ROOT, "%.3f ms", nanos / 1e6);
+    }
 
-                options:
-                  -h, --help        print this help message
-                  -i, --include <range>...   include these ranges
-                                    (default: include everything)
-                  -x, --exclude <range>...   exclude these ranges
-                                    (default: exclude nothing)
-                """.stripIndent());
-                return new int[0];
-            case "-x":
-            case "--exclude":
-                color = -1;
-                break;
-            case "-i":
-            case "--include":
-                color = +1;
-                break;
-            default:
-                /* parse perl-style integer range */
-                String[] operands = args[optind].split("\\.\\.");
-                if (operands.length != 2) {
-                    System.err.printf(
-                        "error: %s does not look like "
-                        + "start..end\n", args[optind]
-                    );
-                    return new int[] {-2};
-                }
-                int begin;
-                try {
-                    begin = Integer.parseInt(operands[0]);
-                }
-                catch (NumberFormatException e) {
-                    System.err.printf(
-                        "error parsing start number %s in %s: %s\n",
-                        operands[0], args[optind], e.getMessage()
-                    );
-                    return new int[] {-2};
-                }
-                begin -= offset;
-                if (begin < 1 || begin > avail) {
-                    System.err.printf(
-                        "error: start number %s in %s out of range: "
-                        + "must be at least %d and at most %d\n",
-                        begin + offset, args[optind], begin,
-                        offset + avail
-                    );
-                    return new int[] {-2};
-                }
-                rangeLo[rangeCount] = begin * color;
-                int end;
-                try {
-                    end = Integer.parseInt(operands[1]);
-                }
-                catch (NumberFormatException e) {
-                    System.err.printf(
-                        "error parsing start number %s in %s: %s\n",
-                        operands[1], args[optind], e.getMessage()
-                    );
-                    return new int[] {-2};
-                }
-                end -= offset;
-                if (end < begin - 1 || end > avail) {
-                    System.err.printf(
-                        "error: end number %s in %s out of range: "
-                        + "must be at least %d and at most %d\n",
-                        end + offset, args[optind], begin - 1 + offset,
-                        offset + avail
-                    );
-                    return new int[] {-2};
-                }
-                rangeHi[rangeCount] = end * color;
-                rangeCount++;
-            }
+    /**
+     * {@link #ok(boolean, String)}, but the description is only made
+     * if it is going to be printed.  See {@link #terse(boolean)}.
+     *
+     * @param ok Are you OK?
+     * @param mess makes the description (and diagnosis, if any)
+     * @return Am I okay
+     * @since 0.2_03
+     */
+    public boolean ok (boolean ok, Supplier<String> mess)
+    {
+        if (ok && terse) {
+            return ok (true, "", false, 0);
         }
-
-        // lambda wants to see something final
-        // TODO: rewrite in something that doesn't count on lambda
-        final int RANGE_TOTAL_COUNT = rangeCount;
-        final int INDEX_OFFSET = offset;
-        return IntStream.rangeClosed(1, avail)
-            .filter(t -> {
-                int thingsToInclude = 0;
-                for (int j = RANGE_TOTAL_COUNT; j > 0; --j) {
-                    int i = j - 1;
-                    int antiColor;
-                    boolean decision;
-                    if (rangeLo[i] > 0) {
-                        antiColor = +1;
-                        decision = true;
-                        thingsToInclude++;
-                    }
-                    else {
-                        antiColor = -1;
-                        decision = false;
-                    }
-
-                    if (antiColor * rangeLo[i] <= t &&
-                        t <= antiColor * rangeHi[i])
-                    {
-                        return decision;
-                    }
-                }
-                // include the rest ONLY if there are no
-                // include rules; this makes something like
-                // 1..0 effectively an exclude-all rule.
-                return thingsToInclude == 0;
-            })
-            .map(t -> t + INDEX_OFFSET).toArray();
+        return ok (ok, mess.get(), 1);
     }
 
     /**
-     * Make a plan, the vector version.
+     * {@link #pass(String, Object...)}, but the description is only
+     * made if it is going to be printed.
      *
-     * @param plan your multitudinous list of plans
-     * @return your best plan in aggregate
-     * @since 0.2.00_2
+     * @param mess makes the description
+     * @return true
+     * @since 0.2_03
      */
-    public int plan (int[] plan)
+    public boolean pass (Supplier<String> mess)
     {
-        /* Holy moly i love you Java 8 */
-        return plan ( IntStream.of(plan).sum() );
+        return ok (true, terse ? "" : mess.get(), false, 0);
     }
 
-    /* Flags for run output. (I don't want an enum since
-     * that would compile to a different class file)
+    /**
+     * Run {@code body} on every case {@code source} comes up with,
+     * one assertion per case: ok if it returns true, not ok if it
+     * returns false or throws.  Cases are taken one at a time and
+     * let go of right after, so a source that makes them up as it
+     * goes can go on for as long as you have time.
+     * <p>
+     * {@code name} is a format string, given the case and its number
+     * (from 1); say {@code "parses %s"} or {@code "case %2$d"}.  It is
+     * only formatted if it is printed (see {@link #terse}).
+     * <pre>{@literal
+     *  t.init_subtest(3);
+     *  t.each(List.of(2, 3, 5, 7), "%s is prime", Primes::is_prime);
+     *  t.done_subtest();
+     * }</pre>
+     * Each case counts as one test, so plan for as many as there are
+     * (when you know).
      *
-     * This should go without saying, but DO NOT RELY
-     * on these concretely values; use them with the name
-     * I gave them.  It is reasonable to assume that I
-     * won't need more than 32 bits though. */
-
-    /** One or more bad subplans. */
-    public static final int EX_BADPLAN = 0x0001;
-
-    /** One or more test methods not found. */
-    public static final int EX_NOTMETH = 0x0002;
-
-    /** Runtime exception. */
-    public static final int EX_BADMETH = 0x0004;
-    /** Static initializer error. */
-    public static final int EX_BADINIT = 0x0008;
-    /** Invocation error. */
-    public static final int EX_BADCALL = 0x0010;
-
-    /** Constructor (factory) error. */
-    public static final int EX_ERRINIT = 0x0020;
+     * @param <T> type of the cases
+     * @param source the cases
+     * @param name description of each case
+     * @param body the test
+     * @return how many cases failed
+     * @since 0.2_03
+     */
+    public <T> long each (Iterable<? extends T> source, String name,
+        Predicate<? super T> body)
+    {
+        return each_case(source.iterator(), name, body);
+    }
 
     /**
-     * Execute tests on another object.  Will use reflection magic.
-     * Note that the return status only concerns itself with fatal
-     * errors, not test errors; that is usually the responsibility
-     * for TAP consumers.  The only exception is EX_BADPLAN, which
-     * you may filter out if you think it miscounted.
+     * {@link #each(Iterable, String, Predicate)} on an iterator.
      *
-     * @param todo list of test numbers
-     * @param plan list of plans; must have the same dimensions
-     * @param factory a function that returns a reference to
-     *   a fresh test object
-     * @return error status; see the EX_* flags
-     * @since 0.2_01
+     * @param <T> type of the cases
+     * @param source the cases
+     * @param name description of each case
+     * @param body the test
+     * @return how many cases failed
+     * @since 0.2_03
      */
-    public int run (int[] todo, int[] plan, Supplier<?> factory)
+    public <T> long each (Iterator<? extends T> source, String name,
+        Predicate<? super T> body)
     {
-        int offense = 0;
-
-        for (int i = 0; i < todo.length; ++i) {
-            int t = todo[i];
-            int planet = plan[i];
-            String testName = "test" + t;
-
-            Object user;
-            TapTest self = new TapTest();
-            self.subplan(planet);
-            self.origin(count);
-            Method test;
-
-            try {
-                user = factory.get();
-            }
-            catch (Exception e) {
-                diag (testName + ": construction failed");
-                confess (e);
-                offense |= EX_ERRINIT;
-                continue;
-            }
+        return each_case(source, name, body);
+    }
 
-            if (user == null) {
-                diag (testName + ": constructor returned null");
-                offense |= EX_ERRINIT;
-                continue;
-            }
+    /**
+     * {@link #each(Iterable, String, Predicate)} on a stream, which
+     * is closed afterwards; so for the lines of a file, say
+     * {@code t.each(Files.lines(path), "line %2$d", ...)}.
+     *
+     * @param <T> type of the cases
+     * @param source the cases
+     * @param name description of each case
+     * @param body the test
+     * @return how many cases failed
+     * @since 0.2_03
+     */
+    public <T> long each (Stream<? extends T> source, String name,
+        Predicate<? super T> body)
+    {
+        try (source) {
+            return each_case(source.iterator(), name, body);
+        }
+    }
 
-            Class<?> type = user.getClass();
+    /**
+     * The loop of {@link #each(Iterable, String, Predicate)}.
+     * Has to be called from each() itself, so that failures point
+     * at whoever called that.
+     *
+     * @param <T> type of the cases
+     * @param source the cases
+     * @param name description of each case
+     * @param body the test
+     * @return how many cases failed
+     */
+    private <T> long each_case (Iterator<? extends T> source, String name,
+        Predicate<? super T> body)
+    {
+        long failed = 0;
+        for (long i = 1; source.hasNext(); ++i) {
+            T x = source.next();
+            boolean ok;
+            String why = null;
             try {
-                test = type.getDeclaredMethod(testName, TapTest.class);
-            }
-            catch (NoSuchMethodException e) {
-                diag (testName + ": method not found");
-                confess (e);
-                offense |= EX_NOTMETH;
-                continue;
+                ok = body.test(x);
             }
-
-            try {
-                test.invoke(user, self);
+            catch (RuntimeException | AssertionError e) {
+                ok = false;
+                why = e.toString();
             }
-            catch (IllegalAccessException
-                    | IllegalArgumentException e)
-            {
-                diag (testName + ": invocation error");
-                confess (e);
-                offense |= EX_BADCALL;
+            if (ok && terse) {
+                check (true, "", false, 0, null);
                 continue;
             }
-            catch (InvocationTargetException e) {
-                Throwable c;
-                if (e.getCause() instanceof ExceptionInInitializerError) {
-                    diag (testName + ": static initializer error");
-                    c = e.getCause().getCause();
-                    offense |= EX_BADINIT;
-                }
-                else {
-                    diag (testName + ": runtime exception/error");
-                    c = e.getCause();
-                    offense |= EX_BADMETH;
-                }
-                confess (c);
+            String mess = String.format(name, x, i);
+            if (why != null) {
+                mess += "\n" + why;
             }
-
-            /* We are more likely to use subtests than not, yes...
-             * But subtests are still SUB-tests -- we are going to
-             * report that for the FULL test here. */
-            int subcount = self.count();
-            int subfail = self.failed();
-            if (subcount != planet) {
-                diag ("%s planned to run %d test%s, "
-                    + "but ran %d instead.",
-                    testName, planet,
-                    planet == 1 ? "" : "s", subcount);
+            if (!check (ok, mess, !ok || mess.startsWith("TODO"), 3, null)) {
+                ++failed;
             }
-            offense |= EX_BADPLAN;
-            count += subcount;
-            fail = subfail;
         }
+        return failed;
+    }
 
-        return offense;
+    /** How many cases {@link #forall} tries. */
+    private int cases = 100;
+    /** Seed for {@link #forall}, or null for a new one each time. */
+    private Long seed = Long.getLong("tap.seed");
+    /** Whether {@link #forall} checks cases on all cores. */
+    private boolean parallel = false;
+
+    /**
+     * Set how many cases {@link #forall} tries per property.
+     * The default is 100.
+     *
+     * @param n number of cases
+     * @since 0.2_03
+     */
+    public void cases (int n)
+    {
+        cases = n;
     }
 
     /**
-     * Execute tests that fails fast.  This had to be a
-     * separate method, because we need to throw anything.
-     * Primarily for use in jdb(1) since I have no idea how
-     * to jump to the stack frame of the cause exception
-     * rather than the exception itself.
-     * <p>
-     * Sorry for copy-and-pasting the whole thing; but I
-     * really can't think of a better way to add this feature.
+     * Make {@link #forall} use the same seed every time, so it comes
+     * up with the same cases.  The default is a new seed for every
+     * property, unless {@code -Dtap.seed=...} says otherwise; either
+     * way, a failed property says what its seed was.
      *
-     * @param todo list of test numbers
-     * @param plan list of plans; must have the same dimensions
-     * @param factory a function that returns a reference to
-     *   a fresh test object
-     * @param fatal types of exceptions to make fatal
-     * @return error status; see the EX_* flags
-     * @throws NullPointerException if specifically
-     *   if {@code factory} returns null (for EX_ERRINIT)
-     * @throws IllegalStateException if the number of tests run
-     *   in any subtest does not match the provided subplan
-     *   (for EX_BADPLAN)
-     * @throws Throwable literally anything else
-     * @since 0.2_01
+     * @param seed the seed
+     * @since 0.2_03
      */
-    public int runff (int[] todo, int[] plan,
-        Supplier<?> factory, int fatal) throws Throwable
+    public void seed (long seed)
     {
-        int offense = 0;
+        this.seed = seed;
+    }
 
-        for (int i = 0; i < todo.length; ++i) {
-            int t = todo[i];
-            int planet = plan[i];
-            String testName = "test" + t;
+    /**
+     * Make {@link #forall} make and check its cases on all cores (on
+     * the common fork/join pool).  The property has to be fine with
+     * that, of course.  The result is the same as checking them one
+     * after another: each case is made from its own seed, and the
+     * counterexample is always the first case that fails.
+     *
+     * @param parallel true to turn it on
+     * @since 0.2_03
+     */
+    public void parallel (boolean parallel)
+    {
+        this.parallel = parallel;
+    }
 
-            Object user;
-            TapTest self = new TapTest();
-            self.subplan(planet);
-            self.origin(count);
-            Method test;
+    /**
+     * Check that {@code prop} holds for every case {@code gen} comes
+     * up with, out of {@link #cases} of them, as one assertion.  If it
+     * doesn't (it returns false, or throws), the counterexample is
+     * shrunk as far as it goes and printed with the seed, so you can
+     * get the same cases again with {@link #seed} or
+     * {@code -Dtap.seed=...}.
+     * <pre>{@literal
+     *  t.forall("reverse twice", Gen.lists(Gen.ints()), l -> {
+     *      List<Integer> r = new ArrayList<>(l);
+     *      Collections.reverse(r);
+     *      Collections.reverse(r);
+     *      return r.equals(l);
+     *  });
+     * }</pre>
+     *
+     * @param <T> type of the cases
+     * @param mess test name
+     * @param gen makes the cases
+     * @param prop the property
+     * @return whether it held
+     * @since 0.2_03
+     */
+    public <T> boolean forall (String mess, Gen<T> gen,
+        Predicate<? super T> prop)
+    {
+        long base = seed != null ? seed
+            : new SplittableRandom().nextLong();
+        int n = cases;
+        IntStream all = IntStream.range(0, n);
+        if (parallel) {
+            all = all.parallel();
+        }
+        /* The first one, even in parallel */
+        OptionalInt bad = all.filter(i ->
+            falsify(prop, gen.make(instance(base, i), size(i, n))) != null)
+            .findFirst();
+        if (bad.isEmpty()) {
+            return check (true, mess, false, 0, null);
+        }
 
-            try {
-                user = factory.get();
-            }
-            catch (Exception e) {
-                diag (testName + ": construction failed");
-                offense |= EX_ERRINIT;
-                if ((fatal & offense) != 0) {
-                    throw e;
+        int i = bad.getAsInt();
+        T x = gen.make(instance(base, i), size(i, n));
+        T first = x;
+        String why = falsify(prop, x);
+        int steps = 0, tries = 0;
+        shrinking:
+        while (steps < 1000) {
+            Iterator<T> smaller = gen.shrink(x).iterator();
+            while (smaller.hasNext() && tries < 100000) {
+                T y = smaller.next();
+                ++tries;
+                String w = falsify(prop, y);
+                if (w != null) {
+                    x = y;
+                    why = w;
+                    ++steps;
+                    continue shrinking;
                 }
-                confess (e);
-                continue;
             }
+            break;
+        }
 
-            /* Performance-wise, I don't know if this does anything
-             * I'm just doing this because I finally just learned
-             * how to write functional Java (1.8) for once... :) */
-            if ((fatal & EX_ERRINIT) != 0) {
-                Objects.requireNonNull(testName,
-                    () -> testName + ": constructor returned null");
-            }
-            else {
-                if (user == null) {
-                    diag (testName + ": constructor returned null");
-                    offense |= EX_ERRINIT;
-                }
-                continue;
-            }
+        StringBuilder diag = new StringBuilder(mess);
+        diag.append(String.format("\nFalsified after %d case%s "
+            + "(seed %d; -Dtap.seed=%d to do it again)",
+            i + 1, i == 0 ? "" : "s", base, base));
+        diag.append("\nCounterexample: ").append(brief(x));
+        if (steps > 0) {
+            diag.append(String.format("\nShrunk %d time%s from: %s",
+                steps, steps == 1 ? "" : "s", brief(first)));
+        }
+        if (!why.isEmpty()) {
+            diag.append("\n").append(why);
+        }
+        return check (false, diag.toString(), true, 2, null);
+    }
 
-            Class<?> type = user.getClass();
-            try {
-                test = type.getDeclaredMethod(testName, TapTest.class);
-            }
-            catch (NoSuchMethodException e) {
-                diag (testName + ": method not found in "
-                    + type.getName());
-                offense |= EX_NOTMETH;
-                if ((fatal & offense) != 0) {
-                    throw e;
-                }
-                confess (e);
-                continue;
-            }
+    /**
+     * Check a property on a case.
+     *
+     * @param <T> type of the case
+     * @param prop the property
+     * @param x the case
+     * @return null if it held; otherwise what it threw, or ""
+     */
+    private static <T> String falsify (Predicate<? super T> prop, T x)
+    {
+        try {
+            return prop.test(x) ? null : "";
+        }
+        catch (RuntimeException | AssertionError e) {
+            return "Threw: " + e;
+        }
+    }
 
-            try {
-                test.invoke(user, self);
-            }
-            catch (IllegalAccessException
-                    | IllegalArgumentException e)
-            {
-                diag (testName + ": invocation error");
-                offense |= EX_BADCALL;
-                if ((fatal & offense) != 0) {
-                    throw e;
-                }
-                confess (e);
-                continue;
-            }
-            catch (InvocationTargetException e) {
-                Throwable c;
-                if (e.getCause() instanceof ExceptionInInitializerError) {
-                    diag (testName + ": static initializer error");
-                    c = e.getCause().getCause();
-                    offense |= EX_BADINIT;
-                }
-                else {
-                    diag (testName + ": runtime exception/error");
-                    c = e.getCause();
-                    offense |= EX_BADMETH;
-                }
-                if ((fatal & offense) != 0) {
-                    throw c;
-                }
-                confess (c);
-            }
+    /**
+     * Where the randomness of one case of {@link #forall} comes from.
+     * Every case gets a seed of its own, so it comes out the same
+     * whichever thread makes it, and in whatever order.
+     *
+     * @param base seed of the whole property
+     * @param i which case
+     * @return randomness for it
+     */
+    private static SplittableRandom instance (long base, int i)
+    {
+        /* Stafford's mix13, so nearby seeds go far apart */
+        long z = base + (i + 1) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return new SplittableRandom(z ^ (z >>> 31));
+    }
 
-            int subcount = self.count();
-            int subfail = self.failed();
-            if (subcount != planet) {
-                diag ("%s planned to run %d test%s, "
-                    + "but ran %d instead.",
-                    testName, planet,
-                    planet == 1 ? "" : "s", subcount);
-            }
-            offense |= EX_BADPLAN;
-            if ((fatal & offense) != 0) {
-                throw new IllegalStateException(
-                    testName + " subplan foiled");
-            }
-            count += subcount;
-            fail = subfail;
+    /**
+     * {@return the size of case {@code i} out of {@code n}: from 0 for
+     * the first up to 100 for the last}
+     *
+     * @param i which case
+     * @param n how many there are
+     */
+    private static int size (int i, int n)
+    {
+        return n <= 1 ? 100 : (int) (100L * i / (n - 1));
+    }
+
+    /**
+     * {@return a case as text, cut short if it goes on}
+     *
+     * @param x the case
+     */
+    private static String brief (Object x)
+    {
+        String text = x instanceof String ? quote((String) x)
+            : x instanceof Object[] ? Arrays.deepToString((Object[]) x)
+            : String.valueOf(x);
+        if (text.length() > 200) {
+            text = text.substring(0, 197) + "...";
         }
+        return text;
+    }
 
-        return offense;
+    /** How long {@link #bench} warms up, in milliseconds. */
+    private long warmup = 200;
+    /** How long {@link #bench} measures, in milliseconds. */
+    private long measure = 500;
+    /** Where {@link #bench} throws results, once it has been used. */
+    private Blackhole blackhole = null;
+    /** How many samples {@link #bench} takes. */
+    private static final int SAMPLES = 20;
+    /** Student's t for 99% and {@code SAMPLES - 1} degrees of freedom. */
+    private static final double T_99 = 2.861;
+
+    /**
+     * Set how long {@link #bench} warms up (so the JIT has had its go
+     * at the code) and how long it measures afterwards.  The defaults
+     * are 200 ms and 500 ms.
+     *
+     * @param warmup warm-up time (ms)
+     * @param measure measuring time (ms)
+     * @since 0.2_03
+     */
+    public void bench_time (long warmup, long measure)
+    {
+        this.warmup = warmup;
+        this.measure = measure;
     }
 
-    /*
-     * The subtest model is a layer on top of TapTest.java.
-     * Its function is purely informational; the planning and
-     * everything is still controlled by the API there.
+    /**
+     * Time {@code op} and pass if a call takes {@code nanos}
+     * nanoseconds or less, on average.  Either way, a note says how
+     * long a call took (with a 99% confidence interval, from 20
+     * samples) and how many calls that makes a second.
+     * <p>
+     * What {@code op} returns is fed to a blackhole, so the JIT can't
+     * tell that nobody wants it and skip the work; so return what you
+     * computed.  (Use a {@code Runnable} only if it has side effects.)
+     * Primitives get boxed on the way, which is part of what you
+     * measure; a few nanoseconds at most.  Everything else about
+     * microbenchmarks still applies: this is no JMH, just a tripwire
+     * for the kind of regression that turns 50 ns into 5 us.  Leave
+     * the budget some room, too; CI machines have bad days.
+     * <pre>{@literal
+     *  t.bench("lookup", () -> map.get(key), 100);
+     * }</pre>
+     *
+     * @param <T> whatever {@code op} returns
+     * @param mess test name
+     * @param op the code to time
+     * @param nanos budget per call (ns)
+     * @return whether it was fast enough
+     * @since 0.2_03
      */
+    public <T> boolean bench (String mess, Supplier<T> op, double nanos)
+    {
+        double[] took = measure(op);
+        return budget(mess, took, took[0] <= nanos,
+            String.format(Locale.ROOT, "at most %.3f ns/op", nanos));
+    }
 
-    /** ID of the current subtest. */
-    private int subtest = 0;
-    /** Expected subtotal from the current subtest. */
-    private int subplan = 0;
-    /** Subtotal of the current subtest. */
-    private int subcount = 0;
-    /** Failed subtotal of the current subtest. */
-    private int subfail = 0;
-    /** Whether we are currently in a subtest. */
-    private boolean subtesting = false;
+    /**
+     * {@link #bench(String, Supplier, double)} for code that returns
+     * nothing.
+     *
+     * @param mess test name
+     * @param op the code to time
+     * @param nanos budget per call (ns)
+     * @return whether it was fast enough
+     * @since 0.2_03
+     */
+    public boolean bench (String mess, Runnable op, double nanos)
+    {
+        double[] took = measure(() -> {
+            op.run();
+            return null;
+        });
+        return budget(mess, took, took[0] <= nanos,
+            String.format(Locale.ROOT, "at most %.3f ns/op", nanos));
+    }
 
-    /** Failed todo tests. */
-    private int subtodo = 0;
-    /** Passed todo tests. */
-    private List<Integer> subdone = new ArrayList<Integer>();
+    /**
+     * {@link #bench(String, Supplier, double)}, but pass if there are
+     * at least {@code ops} calls a second instead.
+     *
+     * @param <T> whatever {@code op} returns
+     * @param mess test name
+     * @param op the code to time
+     * @param ops calls per second we want, at least
+     * @return whether it was fast enough
+     * @since 0.2_03
+     */
+    public <T> boolean bench_ops (String mess, Supplier<T> op, double ops)
+    {
+        double[] took = measure(op);
+        return budget(mess, took, 1e9 / took[0] >= ops,
+            String.format(Locale.ROOT, "at least %.0f ops/s", ops));
+    }
 
     /**
-     * Declare that all subtests from here must run
-     * this many tests.  This supercedes the subplan()
-     * method that should overridden to be of use in the
-     * previous embedded version.
+     * {@link #bench_ops(String, Supplier, double)} for code that
+     * returns nothing.
      *
-     * @param plan number of test cases expected for
-     *   subsequent subtests to run, if positive; it is
-     *   otherwise ineffective.
-     * @since 0.2_00
+     * @param mess test name
+     * @param op the code to time
+     * @param ops calls per second we want, at least
+     * @return whether it was fast enough
+     * @since 0.2_03
      */
-    public void subplan (int plan)
+    public boolean bench_ops (String mess, Runnable op, double ops)
     {
-        subplan = plan;
+        double[] took = measure(() -> {
+            op.run();
+            return null;
+        });
+        return budget(mess, took, 1e9 / took[0] >= ops,
+            String.format(Locale.ROOT, "at least %.0f ops/s", ops));
     }
 
     /**
-     * Initialize and Enter a subtest.  This switches the subtest
-     * module to a state that must be followed by {@link #done_subtest}.
+     * Report on a {@link #bench}.
      *
-     * @throws IllegalStateException if currently in a subset
-     * @param id the test index.  Used for informational reports.
-     * @since 0.1.6
+     * @param mess test name
+     * @param took mean and error (ns/op)
+     * @param ok whether that is within budget
+     * @param budget the budget, for humans
+     * @return {@code ok}
      */
-    public void init_subtest (int id)
+    private boolean budget (String mess, double[] took, boolean ok,
+        String budget)
     {
-        if (subtesting) {
-            throw new IllegalStateException (
-                "You are already in subtest "
-                + subtest + ".");
+        String stats = String.format(Locale.ROOT,
+            "%.3f ns/op +/- %.3f (99%%), %.0f ops/s; budget: %s",
+            took[0], took[1], 1e9 / took[0], budget);
+        if (ok) {
+            check (true, mess, false, 0, null);
+            note ("%s: %s", mess, stats);
+            return true;
         }
-        subtest = id;
-        subcount = 0;
-        subfail = 0;
-        subdone.clear();
-        subtesting = true;
-        note ("Start subtest %d", subtest);
+        return check (false, mess + "\n" + stats, true, 3, null);
     }
 
     /**
-     * Conclude and Exit a subtest.  The reverts the state of
-     * subtest module to the one set by {@link init_subtest}.
+     * Warm up and time {@code op} for {@link #bench}.  Calls are made
+     * in batches big enough to time, and each batch is a sample.
      *
-     * @throws IllegalStateException if not currently in a subset
-     * @return the appropriate return value per P101/P102 requirements.
-     * @since 0.1.6
+     * @param <T> whatever {@code op} returns
+     * @param op the code to time
+     * @return mean time per call and the half-width of its 99%
+     *   confidence interval, in nanoseconds
      */
-    public boolean done_subtest ()
+    private <T> double[] measure (Supplier<T> op)
     {
-        if (!subtesting) {
-            throw new IllegalStateException (
-                "You are not in an ongoing subtest.");
-        }
-        subtesting = false;
-        /* Be more chatty if we are embedded */
-        boolean embedded = origin < 0;
-        note ("End of subtest %d", subtest);
-        note ("Ran %d test%s and failed %d test%s.",
-                subcount, subcount == 1 ? "" : "s",
-                subfail, subfail == 1 ? "" : "s");
-        if (embedded && !subdone.isEmpty()) {
-            /* String.join wants an array/iterable of CharSequences.
-             * Fair enough... but I don't want anything more than a
-             * one-liner, so gonna use Java 8 Stream.... :) */
-            String celebrate = String.join(", ", subdone
-            /* There are two flavors of Integer.toString, one static
-             * and one of instance (overrides Object.toString()).
-             * Sadly, Java can't decide between which one's which.
-             * So we will use something less ambiguous. */
-                .stream().map(String::valueOf)
-            /* Without this, Java would think this is an Object[] */
-                .toArray(String[]::new));
-            diag ("You passed TODO test"
-                + (subdone.size() == 1 ? " " : "s ")
-                + celebrate + "! Nicely done.");
-            diag ("You may tick %s off your bucket list now.",
-                  subdone.size() == 1 ? "that" : "those");
+        if (blackhole == null) {
+            /* Ours, so that it isn't optimized away along with
+             * everything that goes into it */
+            blackhole = new Blackhole();
         }
-        if (subtodo > 0) {
-            log (!embedded, "You still have %d TODO test%s to go.",
-                subtodo, subtodo == 1 ? "" : "s");
+        Blackhole hole = blackhole;
+        long sample = Math.max(TimeUnit.MILLISECONDS.toNanos(measure)
+            / SAMPLES, 1);
+        long end = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(warmup);
+        long batch = 1;
+        for (;;) {
+            long start = System.nanoTime();
+            for (long k = 0; k < batch; ++k) {
+                hole.consume(op.get());
+            }
+            long now = System.nanoTime();
+            if (now - start < sample && batch < 1L << 40) {
+                batch *= 2;
+            }
+            else if (now >= end) {
+                break;
+            }
         }
-        if (subfail > 0) {
-            log (!embedded, "It seems that subtest %d failed. "
-                + "Tough luck.", subtest);
-            return false;
-        }
-        if (embedded) {
-            if (subplan > 0 && subcount != subplan) {
-                diag ("Bad plan! Subtest %d planned to run %d test%s, "
-                    + "but ended up running %d test%s.",
-                    subtest, subplan, subplan == 1 ? "" : "s",
-                    subcount, subcount == 1 ? "" : "s");
-                return false;
+
+        double[] x = new double[SAMPLES];
+        double sum = 0;
+        for (int i = 0; i < SAMPLES; ++i) {
+            long start = System.nanoTime();
+            for (long k = 0; k < batch; ++k) {
+                hole.consume(op.get());
             }
+            x[i] = (double) (System.nanoTime() - start) / batch;
+            sum += x[i];
+        }
+        double mean = sum / SAMPLES, var = 0;
+        for (double v : x) {
+            var += (v - mean) * (v - mean);
         }
-        return true;
+        var /= SAMPLES - 1;
+        return new double[] { mean, T_99 * Math.sqrt(var / SAMPLES) };
     }
 
     /**
-     * Offset to add to printed test number. May be the number of
-     * tests before this test.  Whatever makes sense to you.
-     */
-    private int origin = 0;
-
-    /**
-     * Override offset to add to the printed test number.  Pass Negative
-     * to enable embedded mode (for JUnit5).
-     * @param offset the desired offset
-     * @since 0.1.6
+     * Where {@link #bench} throws results, so that the JIT has to
+     * compute them.  Done the JMH way: instead of a volatile write
+     * per call (which costs more than a lot of things we would time),
+     * a cheap random number decides, very rarely, to hang on to what
+     * it got; and the JIT can't know when.
      */
-    public void origin(int offset) { origin = offset; }
+    private static final class Blackhole
+    {
+        /** What we hung on to last. */
+        private Object kept;
+        /** A linear congruential generator. */
+        private int lcg = (int) System.nanoTime();
+        /** Keep something when these bits of {@link #lcg} are 0. */
+        private int mask = 1;
 
-    /* Advanced test functions */
+        /**
+         * Take something and (almost always) do nothing with it.
+         *
+         * @param x the thing
+         */
+        void consume (Object x)
+        {
+            int r = lcg = lcg * 1664525 + 1013904223;
+            if ((r & mask) == 0) {
+                kept = x;
+                /* Less and less often */
+                mask = mask << 1 | 1;
+            }
+        }
+    }
 
     /**
-     * Assert {@code a} equals {@code b}.
-     * Null is only considered to be equal to null.
-     * Mimics is() in Test::More.  Note that the order
-     * is reversed compared to JUnit.
+     * {@link String#format}, unless there is nothing to format.
      *
-     * @param a left operand; what we got
-     * @param b right operand; what we expected
-     * @param mess test name
-     * @return whether {@code a} and {@code b} are equal
-     * @since 0.1.6
+     * @param line format string
+     * @param args format arguments
+     * @return the formatted string
      */
-    public boolean is(Object a, Object b, String mess) {
-        return is(a, b, mess, 1);
+    private static String format (String line, Object... args)
+    {
+        if (args.length == 0 && line.indexOf('%') < 0) {
+            return line;
+        }
+        return String.format(line, args);
     }
 
     /**
-     * Alternative version with call stack depth.
+     * Split by line feed, skipping at most one empty
+     * string at the end.
+     * <p>
+     * Note the intentional design to return the empty
+     * list on an empty string <i>or</i> a correctly
+     * line-delimited text containing a single blank line
+     * (i.e. a string with just the line feed itself).
      *
-     * @param a a
-     * @param b b
-     * @param testName test name
-     * @param depth stack depth
-     * @return the same thing
-     * @since 0.1.6
+     * @param text string of text
+     * @return lines
      */
-    public boolean is(
-        Object a, Object b, String testName, int depth
-    ) {
-        StringBuilder mess = new StringBuilder();
-        mess.append(testName); mess.append("\n");
-        boolean good = !(
+    private static String[] splitlines(String text)
+    {
+        String[] lines = text.split("\\n", -1);
+        int n = lines.length;
+        /* The following guard exists for robustness, but
+         * split(...) returning an empty array on a negative
+         * limit is badly misbehaved, speaking from my tests. */
+        if (n == 0) {
+            return lines;
+        }
+        if (lines[n - 1].isEmpty()) {
+            return Arrays.copyOf(lines, n - 1);
+        }
+        return lines;
+    }
+
+    /**
+     * {@code ok(1)} with no trace.
+     * <p>
+     * <b>Changed in 0.2_02</b>: this method now takes format
+     * parameters and returns true.
+     *
+     * @param mess a description
+     * @param args {@link String#format} arguments
+     * @see #ok(boolean, String, boolean, int)
+     * @return true
+     * @since 0.1
+     */
+    public boolean pass (String mess, Object... args) {
+        return ok (true, format(mess, args), false, 0);
+    }
+
+    /**
+     * {@code ok(0)} with no trace.
+     * <p>
+     * <b>Changed in 0.2_02</b>: this method now takes format
+     * parameters and returns false.
+     *
+     * @param mess a description
+     * @param args {@link String#format} arguments
+     * @see #ok(boolean, String, boolean, int)
+     * @return false
+     * @since 0.1
+     */
+    public boolean fail (String mess, Object... args)
+    {
+        return ok (false, format(mess, args), false, 0);
+    }
+
+    /**
+     * Pass {@code count} tests.
+     * <p>
+     * <b>Changed in 0.2_02</b>: this method now takes format
+     * parameters and returns an int.
+     *
+     * @param count how many tests to pass
+     * @param mess a description
+     * @param args {@link String#format} arguments
+     * @return number of tests passed
+     * @since 0.1.6
+     */
+    public int pass (int count, String mess, Object... args)
+    {
+        int w = 0;
+        mess = format(mess, args);
+        for (int i = 0; i < count; ++i) {
+            ok (true, mess, false, 0);
+            w++;
+        }
+        return w;
+    }
+
+    /**
+     * Fail {@code count} tests.
+     * <p>
+     * <b>Changed in 0.2_02</b>: this method now takes format
+     * parameters and returns an int.
+     *
+     * @param count how many tests to fail
+     * @param mess a description
+     * @param args {@link String#format} arguments
+     * @return number of tests failed
+     * @since 0.1.6
+     */
+    public int fail (int count, String mess, Object... args)
+    {
+        int epicfail = 0;
+        mess = format(mess, args);
+        for (int i = 0; i < count; ++i) {
+            ok (false, mess, false, 0);
+            epicfail++;
+        }
+        return epicfail;
+    }
+
+    /**
+     * The much-needed complement to {@link skip_all}.  This skips
+     * a specified number of tests that are marked uniformly with the
+     * same message.
+     * <p>
+     * <b>Changed in 0.2_02</b>: this method now takes format
+     * parameters and returns an int.
+     *
+     * @param num number of tests to skip; only a positive number of
+     *   {@code num} will be skipped.
+     * @param mess skip message.  Multi-line is not supported.
+     * @param args {@link String#format} arguments
+     * @return number of tests skipped
+     * @since 0.1.6
+     */
+    public int skip (int num, String mess, Object... args)
+    {
+        int skippy = 0;
+        mess = format("SKIP " + mess, args);
+        for (int i = 0; i < num; ++i) {
+            ok (true, mess, false, 0);
+            skippy++;
+        }
+        return skippy;
+    }
+
+    /**
+     * Command-line argument parser.
+     * <p>
+     * {@code --failed} and {@code --failed-first} read the file that
+     * {@code --state} names, but nothing here writes it; use {@link
+     * #select} and hand {@link Selection#state} to {@link #history}
+     * for that.
+     *
+     * @param prog argument 0; program name
+     * @param args argument vector from argument 1 and on
+     * @param start starting number of our tests
+     * @param avail number of tests we have
+     * @return tests we should run; or an array of a
+     *   single negative number as error status
+     * @throws IllegalArgumentException if {@code start}
+     *   is negative, and other weird stuff happens
+     * @since 0.2_00
+     */
+    public static int[] parse_cmd (String prog,
+        String[] args, int start, int avail)
+    {
+        Selection todo = select(prog, args, start, avail);
+        return todo == null ? new int[] {-2} : todo.toArray();
+    }
+
+    /**
+     * {@link #parse_cmd}, but without writing out every test number.
+     * The {@code -i}/{@code -x} ranges are worked out as ranges, so
+     * this takes as long as there are ranges, not tests; and the
+     * tests come back as a {@link Selection} that you can hand to
+     * {@link #run(Selection, IntUnaryOperator, Supplier)} as it is.
+     * For when {@code avail} is in the millions.
+     * <p>
+     * ({@code --failed}, {@code --failed-first} and {@code --shard}
+     * without {@code --contiguous} still go through the tests one
+     * by one.)
+     * <p>
+     * If there was a {@code --state}, the selection knows where it
+     * is ({@link Selection#state}); it is up to you to keep a
+     * {@link #history} there:
+     *
+     * <pre>{@literal
+     *  Selection todo = TapTest.select("java Foo", args, 1, AVAIL);
+     *  TapTest t = new TapTest();
+     *  if (todo.state() != null) {
+     *      t.history(todo.state());
+     *  }
+     * }</pre>
+     *
+     * @param prog argument 0; program name
+     * @param args argument vector from argument 1 and on
+     * @param start starting number of our tests
+     * @param avail number of tests we have
+     * @return tests we should run; or null if the arguments are
+     *   no good (we will have said why)
+     * @throws IllegalArgumentException if {@code start}
+     *   is negative, and other weird stuff happens
+     * @since 0.2_03
+     */
+    public static Selection select (String prog,
+        String[] args, int start, int avail)
+    {
+        if (start < 0) {
+            /* "test-n" would not be a valid Java
+             * identifier; don't let that happen. */
+            throw new IllegalArgumentException(
+                "first test cannot be negative (you "
+                + "gave me " + start + ")");
+        }
+        int offset = start - 1;
+
+        int optind = 0;
+        final String USAGE = String.format(
+            "usage: %s [[-i] <range>...] [-x <range>...] "
+            + "[--state <file> [--failed | --failed-first]] "
+            + "[--shard <k>/<n> [--contiguous | --costs <file>]]",
+            prog
+        );
+
+        // options
+
+        int[] rangeLo = new int[args.length];
+        int[] rangeHi = new int[args.length];
+        int rangeCount = 0;
+        // include? +1 exclude? -1
+        int color = +1;
+        // which shard (1-based) out of how many; 0 for all
+        int shard = 0, shards = 0;
+        boolean contiguous = false;
+        String costs = null;
+        // where the last run went, if anywhere; see Selection.state()
+        String where = null;
+        boolean failed = false, failed_first = false;
+
+        for (; optind < args.length; ++optind) {
+            switch (args[optind]) {
+            case "-h":
+            case "--help":
+                System.out.println(USAGE);
+                System.out.println();
+                System.out.print("""
+                This is TAP for Java.
+
+                options:
+                  -h, --help        print this help message
+                  -i, --include <range>...   include these ranges
+                                    (default: include everything)
+                  -x, --exclude <range>...   exclude these ranges
+                                    (default: exclude nothing)
+                  --state <file>    where to keep what failed (and
+                                    how long it took)
+                  --failed          only run the tests picked above
+                                    that failed last time
+                                    (needs --state)
+                  --failed-first    run those first, then the rest
+                                    (needs --state)
+                  --shard <k>/<n>   of the tests picked above, only
+                                    run the k-th share out of n
+                                    (default: every n-th, from k)
+                  --contiguous      share them out in n blocks
+                  --costs <file>    share them out so that every share
+                                    takes about as long, going by the
+                                    testN times in <file> (see
+                                    history())
+                """.stripIndent());
+                return Selection.of(new int[0]);
+            case "--shard": {
+                String[] kn = optind + 1 < args.length
+                    ? args[++optind].split("/", -1) : new String[0];
+                try {
+                    if (kn.length != 2) {
+                        throw new NumberFormatException(
+                            "does not look like k/n");
+                    }
+                    shard = Integer.parseInt(kn[0]);
+                    shards = Integer.parseInt(kn[1]);
+                }
+                catch (NumberFormatException e) {
+                    System.err.printf("error parsing --shard %s: %s\n",
+                        String.join("/", kn), e.getMessage());
+                    return null;
+                }
+                if (shards < 1 || shard < 1 || shard > shards) {
+                    System.err.printf(
+                        "error: shard %d/%d out of range: must be "
+                        + "between 1/n and n/n\n", shard, shards
+                    );
+                    return null;
+                }
+                break;
+            }
+            case "--contiguous":
+                contiguous = true;
+                break;
+            case "--failed":
+                failed = true;
+                break;
+            case "--failed-first":
+                failed_first = true;
+                break;
+            case "--state":
+                if (++optind == args.length) {
+                    System.err.println(USAGE);
+                    return null;
+                }
+                where = args[optind];
+                break;
+            case "--costs":
+                if (++optind == args.length) {
+                    System.err.println(USAGE);
+                    return null;
+                }
+                costs = args[optind];
+                break;
+            case "-x":
+            case "--exclude":
+                color = -1;
+                break;
+            case "-i":
+            case "--include":
+                color = +1;
+                break;
+            default:
+                /* parse perl-style integer range */
+                String[] operands = args[optind].split("\\.\\.");
+                if (operands.length != 2) {
+                    System.err.printf(
+                        "error: %s does not look like "
+                        + "start..end\n", args[optind]
+                    );
+                    return null;
+                }
+                int begin;
+                try {
+                    begin = Integer.parseInt(operands[0]);
+                }
+                catch (NumberFormatException e) {
+                    System.err.printf(
+                        "error parsing start number %s in %s: %s\n",
+                        operands[0], args[optind], e.getMessage()
+                    );
+                    return null;
+                }
+                begin -= offset;
+                if (begin < 1 || begin > avail) {
+                    System.err.printf(
+                        "error: start number %s in %s out of range: "
+                        + "must be at least %d and at most %d\n",
+                        begin + offset, args[optind], begin,
+                        offset + avail
+                    );
+                    return null;
+                }
+                rangeLo[rangeCount] = begin * color;
+                int end;
+                try {
+                    end = Integer.parseInt(operands[1]);
+                }
+                catch (NumberFormatException e) {
+                    System.err.printf(
+                        "error parsing start number %s in %s: %s\n",
+                        operands[1], args[optind], e.getMessage()
+                    );
+                    return null;
+                }
+                end -= offset;
+                if (end < begin - 1 || end > avail) {
+                    System.err.printf(
+                        "error: end number %s in %s out of range: "
+                        + "must be at least %d and at most %d\n",
+                        end + offset, args[optind], begin - 1 + offset,
+                        offset + avail
+                    );
+                    return null;
+                }
+                rangeHi[rangeCount] = end * color;
+                rangeCount++;
+            }
+        }
+
+        Selection todo = Selection.paint(rangeLo, rangeHi, rangeCount,
+            avail, offset);
+
+        if (failed || failed_first) {
+            if (where == null) {
+                System.err.println("error: --failed and --failed-first "
+                    + "need a --state");
+                return null;
+            }
+            Map<String, long[]> last;
+            try {
+                last = read_history(where);
+            }
+            catch (NoSuchFileException e) {
+                last = new HashMap<String, long[]>();
+            }
+            catch (IOException e) {
+                System.err.printf("error: cannot read state from %s (%s)\n",
+                    where, e);
+                return null;
+            }
+            // lambda wants to see something final
+            final Map<String, long[]> LAST = last;
+            int[] bad = todo.stream().filter(t -> {
+                long[] got = LAST.get("test" + t);
+                return got != null && got[1] != 0;
+            }).toArray();
+            if (bad.length == 0 && failed) {
+                System.err.println("Nothing failed last time.");
+            }
+            if (failed) {
+                todo = Selection.of(bad);
+            }
+            else {
+                /* Bad ones first; the rest in order after them */
+                IntStream rest = todo.stream().filter(t -> {
+                    long[] got = LAST.get("test" + t);
+                    return got == null || got[1] == 0;
+                });
+                todo = Selection.of(IntStream.concat(Arrays.stream(bad),
+                    rest).toArray());
+            }
+        }
+        if (shards == 0) {
+            if (contiguous || costs != null) {
+                System.err.println("error: --contiguous and --costs "
+                    + "need a --shard");
+                return null;
+            }
+        }
+        else if (contiguous && costs != null) {
+            System.err.println("error: --contiguous and --costs "
+                + "don't go together");
+            return null;
+        }
+        else if (contiguous) {
+            /* Blocks differ in size by one at most */
+            todo = todo.slice((int) ((long) todo.size() * (shard - 1) / shards),
+                (int) ((long) todo.size() * shard / shards));
+        }
+        else if (costs == null) {
+            todo = Selection.of(share(todo.toArray(), shard, shards));
+        }
+        else {
+            Map<String, long[]> took;
+            try {
+                took = read_history(costs);
+            }
+            catch (IOException e) {
+                System.err.printf("error: cannot read costs from %s (%s)\n",
+                    costs, e);
+                return null;
+            }
+            if (!took.keySet().stream().anyMatch(
+                    name -> name.matches("test\\d+")))
+            {
+                /* Like a TapHarness --state file, which goes by class */
+                System.err.printf("error: no testN times in %s\n", costs);
+                return null;
+            }
+            todo = Selection.of(share(todo.toArray(), shard, shards, took));
+        }
+        todo.state = where;
+        return todo;
+    }
+
+    /**
+     * Deal tests out to {@code n} shards and keep the {@code k}-th
+     * share, like {@code --shard k/n}: every n-th test starting from
+     * the k-th.  (For {@code --contiguous}, see {@link
+     * Selection#slice}.)  Each test goes to exactly one shard.
+     *
+     * @param picked tests to deal out, in order
+     * @param k which shard we are (1-based)
+     * @param n how many shards there are
+     * @return our share, in order
+     */
+    private static int[] share (int[] picked, int k, int n)
+    {
+        return IntStream.range(0, picked.length)
+            .filter(i -> i % n == k - 1)
+            .map(i -> picked[i]).toArray();
+    }
+
+    /**
+     * {@link #share(int[], int, int)}, but dealt out by how
+     * long each test took, so every shard takes about as long: the
+     * slowest test goes first, to whichever shard has the least to
+     * do so far.  Every shard works this out for itself and comes up
+     * with the same answer, as long as they all read the same file.
+     * Tests that aren't in the file are assumed to take as long as
+     * the ones that are, on average.
+     *
+     * @param picked tests to deal out, in order
+     * @param k which shard we are (1-based)
+     * @param n how many shards there are
+     * @param took how long tests took (ns), by name; see
+     *   {@link #read_history}
+     * @return our share, in order
+     */
+    private static int[] share (int[] picked, int k, int n,
+        Map<String, long[]> took)
+    {
+        long[] cost = new long[picked.length];
+        long known = 0, sum = 0;
+        for (int i = 0; i < picked.length; ++i) {
+            long[] got = took.get("test" + picked[i]);
+            if (got != null) {
+                cost[i] = Math.max(got[0], 0);
+                sum += cost[i];
+                ++known;
+            }
+            else {
+                cost[i] = -1;
+            }
+        }
+        long guess = known == 0 ? 1 : Math.max(sum / known, 1);
+        Integer[] order = new Integer[picked.length];
+        for (int i = 0; i < picked.length; ++i) {
+            if (cost[i] < 0) {
+                cost[i] = guess;
+            }
+            order[i] = i;
+        }
+        /* Sort is stable, so ties stay in test order */
+        Arrays.sort(order, (a, b) -> Long.compare(cost[b], cost[a]));
+
+        long[] load = new long[n];
+        boolean[] ours = new boolean[picked.length];
+        for (int i : order) {
+            int least = 0;
+            for (int j = 1; j < n; ++j) {
+                if (load[j] < load[least]) {
+                    least = j;
+                }
+            }
+            load[least] += cost[i];
+            ours[i] = least == k - 1;
+        }
+        return IntStream.range(0, picked.length)
+            .filter(i -> ours[i])
+            .map(i -> picked[i]).toArray();
+    }
+
+    /**
+     * Read how long tests took from a file of
+     * {@code nanoseconds TAB name [TAB failed]} lines, the same as
+     * {@link #history} keeps (and TapHarness, with {@code --state},
+     * though its names are classes).  Lines that aren't like that are
+     * skipped; the last line for a name is the one that counts.
+     *
+     * @param path the file
+     * @return nanoseconds, and 1 if it failed, by name
+     * @throws IOException if the file can't be read
+     */
+    private static Map<String, long[]> read_history (String path)
+        throws IOException
+    {
+        return read_history(Files.readAllLines(Paths.get(path),
+            StandardCharsets.UTF_8));
+    }
+
+    /**
+     * {@link #read_history(String)}, from lines already read.
+     *
+     * @param lines the lines
+     * @return nanoseconds, and 1 if it failed, by name
+     */
+    private static Map<String, long[]> read_history (List<String> lines)
+    {
+        Map<String, long[]> took = new HashMap<String, long[]>();
+        for (String line : lines) {
+            String[] f = line.split("\\t", 3);
+            if (f.length >= 2) {
+                try {
+                    took.put(f[1], new long[] {
+                        Long.parseLong(f[0]),
+                        f.length == 3 && f[2].equals("failed") ? 1 : 0
+                    });
+                }
+                catch (NumberFormatException e) {
+                    /* not ours; never mind */
+                }
+            }
+        }
+        return took;
+    }
+
+    /**
+     * Make a plan, the vector version.
+     *
+     * @param plan your multitudinous list of plans
+     * @return your best plan in aggregate
+     * @since 0.2.00_2
+     */
+    public int plan (int[] plan)
+    {
+        /* Holy moly i love you Java 8 */
+        return plan ( IntStream.of(plan).sum() );
+    }
+
+    /* Flags for run output. (I don't want an enum since
+     * that would compile to a different class file)
+     *
+     * This should go without saying, but DO NOT RELY
+     * on these concretely values; use them with the name
+     * I gave them.  It is reasonable to assume that I
+     * won't need more than 32 bits though. */
+
+    /** One or more bad subplans. */
+    public static final int EX_BADPLAN = 0x0001;
+
+    /** One or more test methods not found. */
+    public static final int EX_NOTMETH = 0x0002;
+
+    /** Runtime exception. */
+    public static final int EX_BADMETH = 0x0004;
+    /** Static initializer error. */
+    public static final int EX_BADINIT = 0x0008;
+    /** Invocation error. */
+    public static final int EX_BADCALL = 0x0010;
+
+    /** Constructor (factory) error. */
+    public static final int EX_ERRINIT = 0x0020;
+
+    /**
+     * Test timed out.
+     * @since 0.2_03
+     */
+    public static final int EX_TIMEOUT = 0x0040;
+
+    /** How long one test may take (ms), or 0 for as long as it likes. */
+    private long timeout = 0;
+    /** How long a whole run() may take (ms), or 0. */
+    private long suite = 0;
+    /** Our thread, while we are a test under a watchdog. */
+    private volatile Thread worker = null;
+    /** How many tests we had run when we got cut off, or -1. */
+    private int expired = -1;
+    /** How many of those had failed. */
+    private int expired_fail = 0;
+    /** Why we got cut off. */
+    private String why = null;
+
+    /**
+     * Give up on a test in {@link #run} once it has taken longer than
+     * {@code millis} milliseconds.  The rest of its planned tests are
+     * then reported as {@code not ok}, {@link #EX_TIMEOUT} is set, and
+     * we go on to the next one.
+     * <p>
+     * To be able to walk away from a test, each one gets a thread of
+     * its own, and its output is held until it is done, like
+     * {@link #run(int[], int[], Supplier, Executor)} does.  When time
+     * is up, its thread is interrupted; whatever it prints after that
+     * is thrown away.  Java can't stop a thread that won't stop, so a
+     * test stuck in a loop keeps running in the background (as a
+     * daemon, if it is on one of our threads) until the JVM exits.
+     * Each test is also given its numbers up front, as if the ones
+     * before it ran just what they planned.
+     * <p>
+     * This doesn't apply to {@link #runff}, which is for when you are
+     * sitting in a debugger and time is no object.
+     *
+     * @param millis time limit per test; 0 for none
+     * @since 0.2_03
+     */
+    public void timeout (long millis)
+    {
+        timeout (millis, 0);
+    }
+
+    /**
+     * {@link #timeout(long)}, plus a limit for each {@link #run} as a
+     * whole.  When that is up, the test that is running and all tests
+     * that haven't are reported as {@code not ok}.
+     *
+     * @param millis time limit per test; 0 for none
+     * @param suite time limit per run(); 0 for none
+     * @since 0.2_03
+     */
+    public void timeout (long millis, long suite)
+    {
+        this.timeout = millis;
+        this.suite = suite;
+    }
+
+    /** Failed assertions that make run() stop, or 0 for no limit. */
+    private int max_fail = 0;
+    /** Failed tests that make run() stop, or 0 for no limit. */
+    private int max_lost = 0;
+    /** Tests that make run() stop if they fail. */
+    private int[] smoke = {};
+    /** Failed assertions and tests in run() so far. */
+    private int failures = 0, losses = 0;
+    /** Why run() stopped, or null if it hasn't. */
+    private String stopped = null;
+
+    /**
+     * Make {@link #run} stop early once {@code assertions} assertions
+     * or {@code tests} tests have failed, counting from the first
+     * run().  A test fails if any of its assertions do, if it doesn't
+     * run as many as planned, or if it dies (or times out).
+     * <p>
+     * The tests that are left are reported as {@code SKIP}, as many
+     * as they planned, so that the plan still adds up; and so is
+     * every test in later calls to run().  When something basic is
+     * broken, this is the difference between a screenful of failures
+     * in a second and a much longer one in a minute.
+     * <p>
+     * Tests that are already running on a pool when we stop are
+     * interrupted, and whatever they print after that is thrown away.
+     * {@link #runff} doesn't stop early; it has its own idea of fatal.
+     *
+     * @param assertions stop after this many failed assertions;
+     *   0 for no limit
+     * @param tests stop after this many failed tests; 0 for no limit
+     * @since 0.2_03
+     */
+    public void fail_fast (int assertions, int tests)
+    {
+        this.max_fail = assertions;
+        this.max_lost = tests;
+    }
+
+    /**
+     * Make {@link #run} stop early if any of these tests fails, in
+     * the same way as {@link #fail_fast}.  These are the tests that
+     * make sure the basics work; there is no point in going on
+     * without them.  (Put them first in {@code todo}, too.)
+     *
+     * @param tests test numbers
+     * @since 0.2_03
+     */
+    public void smoke (int... tests)
+    {
+        this.smoke = tests.clone();
+    }
+
+    /**
+     * Count a test for {@link #fail_fast} and {@link #smoke}, and
+     * decide whether that is it.
+     *
+     * @param t test number
+     * @param nanos how long it took, or -1 if we don't know
+     * @param lost how many of its assertions failed
+     * @param broken whether it failed as a whole
+     */
+    private void reckon (int t, long nanos, int lost, boolean broken)
+    {
+        learn(t, nanos, broken);
+        failures += lost;
+        if (!broken) {
+            return;
+        }
+        ++losses;
+        if (stopped != null) {
+            return;
+        }
+        if (max_fail > 0 && failures >= max_fail) {
+            stopped = "stopped after " + failures + " failed assertion"
+                + (failures == 1 ? "" : "s");
+        }
+        else if (max_lost > 0 && losses >= max_lost) {
+            stopped = "stopped after " + losses + " failed test"
+                + (losses == 1 ? "" : "s");
+        }
+        else {
+            for (int s : smoke) {
+                if (s == t) {
+                    stopped = "stopped because smoke test test" + t
+                        + " failed";
+                    break;
+                }
+            }
+        }
+        if (stopped != null) {
+            diag ("Giving up: %s.", stopped);
+        }
+    }
+
+    /** Where we keep how long tests took last time, or null. */
+    private String history = null;
+    /** What the history says, by name: nanoseconds, and 1 if failed. */
+    private Map<String, long[]> past = new HashMap<String, long[]>();
+    /** What we have learned since, in history lines. */
+    private StringBuilder learned = new StringBuilder();
+    /** Whether run() starts with the tests that failed last time. */
+    private boolean failed_first = false;
+    /** Whether run() starts with the tests that took longest. */
+    private boolean longest_first = false;
+
+    /**
+     * Keep a history of how long each test in {@link #run} took, and
+     * whether it failed, in {@code path}; read what is there already.
+     * Use one file per test class.
+     * <p>
+     * The file has one {@code nanoseconds TAB name [TAB failed]} line
+     * per test per run, appended at the end of each run(); the last
+     * line for a test is the one that counts.  When it gets much
+     * longer than that, we squeeze it down to one line per test on
+     * the way in.  parse_cmd() can take it for {@code --costs}.
+     * (A TapHarness {@code --state} file looks the same, but it goes
+     * by class, not by testN, so it is no good for that.)
+     *
+     * @param path the file; created if it isn't there
+     * @since 0.2_03
+     */
+    public void history (String path)
+    {
+        history = path;
+        past.clear();
+        learned.setLength(0);
+        Path file = Paths.get(path);
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            diag ("warning: cannot read %s: %s", path, e);
+            return;
+        }
+        past.putAll(read_history(lines));
+        if (lines.size() > 2 * past.size() + 64) {
+            StringBuilder all = new StringBuilder();
+            past.forEach((name, got) -> line(all, name, got[0], got[1]));
+            try {
+                Path tmp = Paths.get(path + ".tmp");
+                Files.writeString(tmp, all, StandardCharsets.UTF_8);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e) {
+                diag ("warning: cannot write %s: %s", path, e);
+            }
+        }
+    }
+
+    /**
+     * Change the order {@link #run} runs tests in, going by the
+     * {@link #history}: the ones that failed last time, then the
+     * ones that took longest, then the rest, each in {@code todo}
+     * order.  Tests the history knows nothing about count as slow,
+     * since they are most likely the ones you are working on.
+     * <p>
+     * Failures then show up sooner, and on a pool the slow tests no
+     * longer start last and hold everyone up at the end.  Test
+     * numbers follow the order tests run in, so each test starts
+     * with a note of which test it is.
+     *
+     * @param failed_first start with the tests that failed
+     * @param longest_first start with the tests that took longest
+     * @since 0.2_03
+     */
+    public void order (boolean failed_first, boolean longest_first)
+    {
+        this.failed_first = failed_first;
+        this.longest_first = longest_first;
+    }
+
+    /**
+     * Put tests in the order they should run, for {@link #order}.
+     *
+     * @param todo list of test numbers
+     * @param plan list of plans
+     * @return {@code {todo, plan}} in that order; the very same
+     *   arrays if nothing moved
+     */
+    private int[][] schedule (int[] todo, int[] plan)
+    {
+        if (!failed_first && !longest_first || past.isEmpty()) {
+            return new int[][] { todo, plan };
+        }
+        long[][] key = new long[todo.length][];
+        Integer[] by = new Integer[todo.length];
+        for (int i = 0; i < todo.length; ++i) {
+            long[] got = past.get("test" + todo[i]);
+            key[i] = got == null ? new long[] { Long.MAX_VALUE, 0 } : got;
+            by[i] = i;
+        }
+        Comparator<Integer> first = (a, b) -> 0;
+        if (failed_first) {
+            first = (a, b) -> Long.compare(key[b][1], key[a][1]);
+        }
+        if (longest_first) {
+            first = first.thenComparing(
+                (a, b) -> Long.compare(key[b][0], key[a][0]));
+        }
+        /* Sort is stable, so ties stay in todo order */
+        Arrays.sort(by, first);
+        int[] t = new int[todo.length], p = new int[plan.length];
+        boolean moved = false;
+        for (int i = 0; i < by.length; ++i) {
+            t[i] = todo[by[i]];
+            p[i] = plan[by[i]];
+            moved |= by[i] != i;
+        }
+        return moved ? new int[][] { t, p } : new int[][] { todo, plan };
+    }
+
+    /**
+     * Write down how a test did, for {@link #history}.
+     *
+     * @param t test number
+     * @param nanos how long it took, or -1 if we don't know
+     * @param failed whether it failed
+     */
+    private void learn (int t, long nanos, boolean failed)
+    {
+        if (history == null) {
+            return;
+        }
+        String name = "test" + t;
+        if (nanos < 0) {
+            long[] got = past.get(name);
+            nanos = got == null ? 0 : got[0];
+        }
+        line(learned, name, nanos, failed ? 1 : 0);
+    }
+
+    /**
+     * Append what we learned in this run to the {@link #history}.
+     */
+    private void remember ()
+    {
+        if (history == null || learned.length() == 0) {
+            return;
+        }
+        try {
+            Files.writeString(Paths.get(history), learned,
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+        }
+        catch (IOException e) {
+            diag ("warning: cannot write %s: %s", history, e);
+        }
+        learned.setLength(0);
+    }
+
+    /**
+     * Format a line of {@link #history}.
+     *
+     * @param to where to put it
+     * @param name test name
+     * @param nanos how long it took
+     * @param failed 1 if it failed
+     */
+    private static void line (StringBuilder to, String name, long nanos,
+        long failed)
+    {
+        to.append(nanos).append('\t').append(name);
+        if (failed != 0) {
+            to.append("\tfailed");
+        }
+        to.append('\n');
+    }
+
+    /**
+     * Report what is left of a run as skipped, because we stopped.
+     *
+     * @param todo list of test numbers
+     * @param plan list of plans
+     * @param from index of the first test that didn't get to count
+     */
+    private void pass_over (int[] todo, int[] plan, int from)
+    {
+        for (int i = from; i < todo.length; ++i) {
+            skip (plan[i], "test%d %s", todo[i], stopped);
+        }
+    }
+
+    /**
+     * Execute tests on another object.  Will use reflection magic.
+     * Note that the return status only concerns itself with fatal
+     * errors, not test errors; that is usually the responsibility
+     * for TAP consumers.  The only exception is EX_BADPLAN, which
+     * you may filter out if you think it miscounted.
+     *
+     * @param todo list of test numbers
+     * @param plan list of plans; must have the same dimensions
+     * @param factory a function that returns a reference to
+     *   a fresh test object
+     * @return error status; see the EX_* flags
+     * @since 0.2_01
+     */
+    public int run (int[] todo, int[] plan, Supplier<?> factory)
+    {
+        if (timeout > 0 || suite > 0) {
+            return run(todo, plan, factory, null);
+        }
+
+        int offense = 0;
+        int[][] order = schedule(todo, plan);
+        boolean moved = order[0] != todo;
+        todo = order[0];
+        plan = order[1];
+
+        try {
+            for (int i = 0; i < todo.length; ++i) {
+                if (stopped != null) {
+                    pass_over(todo, plan, i);
+                    break;
+                }
+                if (moved) {
+                    note ("test%d", todo[i]);
+                }
+                TapTest self = spawn(plan[i], count, sink);
+                int status = run_one(todo[i], self, factory);
+                offense |= tally(todo[i], plan[i], self, status);
+            }
+        }
+        finally {
+            remember();
+        }
+
+        return offense;
+    }
+
+    /**
+     * {@link #run(int[], int[], Supplier)} for a {@link Selection},
+     * without writing it all out: the tests go a few thousand at a
+     * time, so a million of them take no more room than a few
+     * thousand.  {@code plan} gives the plan of each test, by number.
+     * <p>
+     * Everything that applies to run() applies to each batch; so
+     * {@link #order} only moves tests around within their batch.
+     *
+     * @param todo tests to run, as {@link #select} picked them
+     * @param plan the plan of each test
+     * @param factory a function that returns a reference to
+     *   a fresh test object
+     * @return error status; see the EX_* flags
+     * @since 0.2_03
+     */
+    public int run (Selection todo, IntUnaryOperator plan,
+        Supplier<?> factory)
+    {
+        final int BATCH = 4096;
+        int offense = 0;
+        int[] t = new int[BATCH], p = new int[BATCH];
+        PrimitiveIterator.OfInt it = todo.iterator();
+        while (it.hasNext()) {
+            int n = 0;
+            for (; n < BATCH && it.hasNext(); ++n) {
+                t[n] = it.nextInt();
+                p[n] = plan.applyAsInt(t[n]);
+            }
+            if (n < BATCH) {
+                t = Arrays.copyOf(t, n);
+                p = Arrays.copyOf(p, n);
+            }
+            offense |= run(t, p, factory);
+        }
+        return offense;
+    }
+
+    /**
+     * {@link #run(int[], int[], Supplier)}, but the tests run on
+     * {@code pool} all at once (or as many at once as {@code pool}
+     * lets them).  The output of each test is kept to itself until
+     * all tests before it are done, and then written out in the order
+     * of {@code todo}, exactly as if we ran them one after another.
+     * <p>
+     * Since we can't wait to see how many tests the previous test
+     * ran, test numbers are handed out according to {@code plan}.
+     * If a test doesn't go to plan, the numbers after it will be off
+     * (and prove(1) will tell you so, on top of what we say).
+     * <p>
+     * Your test methods must be fine with running side by side, of
+     * course; each gets its own object from {@code factory} and its
+     * own {@code TapTest}, but anything static is shared.
+     *
+     * @param todo list of test numbers
+     * @param plan list of plans; must have the same dimensions
+     * @param factory a function that returns a reference to
+     *   a fresh test object.  Will be called from the pool.
+     * @param pool where to run the tests, or null to run them one
+     *   at a time, each on a new thread
+     * @return error status; see the EX_* flags
+     * @since 0.2_03
+     */
+    public int run (int[] todo, int[] plan, Supplier<?> factory,
+        Executor pool)
+    {
+        if (stopped != null) {
+            pass_over(todo, plan, 0);
+            return 0;
+        }
+
+        int offense = 0;
+        int origin = count;
+        int[][] order = schedule(todo, plan);
+        boolean moved = order[0] != todo;
+        todo = order[0];
+        plan = order[1];
+        TapTest[] selves = new TapTest[todo.length];
+        List<CompletableFuture<Integer>> jobs =
+            new ArrayList<CompletableFuture<Integer>>(todo.length);
+
+        ScheduledExecutorService dog = null;
+        if (timeout > 0 || suite > 0) {
+            dog = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread th = new Thread(r, "TapTest watchdog");
+                th.setDaemon(true);
+                return th;
+            });
+        }
+        Executor threads = pool;
+        if (pool == null) {
+            threads = task -> {
+                Thread th = new Thread(task, "TapTest");
+                th.setDaemon(true);
+                th.start();
+            };
+        }
+
+        try {
+            CompletableFuture<Integer> last = null;
+            for (int i = 0; i < todo.length; ++i) {
+                TapTest self = spawn(plan[i], origin, TapSink.memory());
+                if (dog != null) {
+                    /* So that we can tell where it was cut off */
+                    self.concurrent = true;
+                }
+                selves[i] = self;
+                if (moved) {
+                    self.note ("test%d", todo[i]);
+                }
+                last = start(todo[i], self, factory, threads, dog,
+                    pool == null ? last : null);
+                jobs.add(last);
+                origin += plan[i];
+            }
+            if (suite > 0) {
+                String why = "ran out of time after "
+                    + suite + " ms for the whole run";
+                dog.schedule(() -> {
+                    for (int i = 0; i < selves.length; ++i) {
+                        expire(selves[i], jobs.get(i), why);
+                    }
+                }, suite, TimeUnit.MILLISECONDS);
+            }
+            offense = collect(todo, plan, selves, jobs);
+        }
+        finally {
+            if (dog != null) {
+                dog.shutdownNow();
+            }
+            remember();
+        }
+
+        return offense;
+    }
+
+    /**
+     * Wait for each test that {@link #run(int[], int[], Supplier,
+     * Executor)} started, in order, and write out what it said.
+     *
+     * @param todo list of test numbers
+     * @param plan list of plans
+     * @param selves the tests' own {@code TapTest}s
+     * @param jobs the tests themselves
+     * @return error status; see the EX_* flags
+     */
+    private int collect (int[] todo, int[] plan, TapTest[] selves,
+        List<CompletableFuture<Integer>> jobs)
+    {
+        int offense = 0;
+
+        for (int i = 0; i < todo.length; ++i) {
+            int status;
+            try {
+                status = jobs.get(i).join();
+            }
+            catch (CompletionException e) {
+                /* Same as what run() would have let through */
+                selves[i].sink.drainTo(sink);
+                Throwable c = e.getCause();
+                if (c instanceof Error) {
+                    throw (Error) c;
+                }
+                if (c instanceof RuntimeException) {
+                    throw (RuntimeException) c;
+                }
+                /* A checked exception, thrown sneakily */
+                throw e;
+            }
+            selves[i].sink.drainTo(sink);
+            offense |= tally(todo[i], plan[i], selves[i], status);
+            if (stopped != null) {
+                for (int j = i + 1; j < todo.length; ++j) {
+                    expire(selves[j], jobs.get(j), stopped);
+                }
+                pass_over(todo, plan, i + 1);
+                break;
+            }
+        }
+
+        return offense;
+    }
+
+    /**
+     * Start a test for {@link #run(int[], int[], Supplier, Executor)},
+     * with an alarm set to go off if it takes too long.
+     *
+     * @param t test number
+     * @param self the test's own {@code TapTest}
+     * @param factory a function that returns a reference to
+     *   a fresh test object
+     * @param pool where to run it
+     * @param dog where to set the alarm, or null for no alarm
+     * @param after what to wait for before starting, or null
+     * @return what the test returns, or {@link #EX_TIMEOUT}
+     */
+    private CompletableFuture<Integer> start (int t, TapTest self,
+        Supplier<?> factory, Executor pool, ScheduledExecutorService dog,
+        CompletableFuture<Integer> after)
+    {
+        CompletableFuture<Integer> done = new CompletableFuture<Integer>();
+        long limit = timeout;
+        Runnable task = () -> {
+            if (done.isDone()) {
+                /* The whole run ran out of time before we got here */
+                return;
+            }
+            self.worker = Thread.currentThread();
+            ScheduledFuture<?> alarm = null;
+            if (dog != null && limit > 0) {
+                String why = "timed out after " + limit + " ms";
+                alarm = dog.schedule(() -> expire(self, done, why),
+                    limit, TimeUnit.MILLISECONDS);
+            }
+            try {
+                int status = run_one(t, self, factory);
+                synchronized (done) {
+                    done.complete(status);
+                }
+            }
+            catch (Throwable e) {
+                synchronized (done) {
+                    done.completeExceptionally(e);
+                }
+            }
+            finally {
+                self.worker = null;
+                if (alarm != null) {
+                    alarm.cancel(false);
+                }
+            }
+        };
+        if (after == null) {
+            pool.execute(task);
+        }
+        else {
+            after.whenComplete((status, e) -> pool.execute(task));
+        }
+        return done;
+    }
+
+    /**
+     * Give up on a test, if it isn't done yet: write down how far it
+     * got, throw away whatever it prints from now on, and interrupt it.
+     *
+     * @param self the test's own {@code TapTest}
+     * @param done the test, as {@link #start} returned it
+     * @param why what to say about it
+     */
+    private static void expire (TapTest self,
+        CompletableFuture<Integer> done, String why)
+    {
+        /* The test finishes while holding on to done, too; so if it
+         * isn't done now, it won't be until we say so. */
+        synchronized (done) {
+            if (done.isDone()) {
+                return;
+            }
+            synchronized (self.sink) {
+                self.sink.mute();
+                self.expired = self.count;
+                self.expired_fail = self.fail;
+                self.why = why;
+            }
+            Thread worker = self.worker;
+            if (worker != null) {
+                worker.interrupt();
+            }
+            done.complete(EX_TIMEOUT);
+        }
+    }
+
+    /**
+     * {@link #run(int[], int[], Supplier, Executor)} with one virtual
+     * thread per test, for tests that spend most of their time waiting
+     * on sockets and files.  The output is as deterministic as ever.
+     * <p>
+     * Virtual threads came with Java 21.  We look them up by
+     * reflection so this still compiles on older JDKs; there, we
+     * fall back to a pool of ordinary threads ({@code limit} of them,
+     * if there is a limit).
+     *
+     * @param todo list of test numbers
+     * @param plan list of plans; must have the same dimensions
+     * @param factory a function that returns a reference to
+     *   a fresh test object
+     * @param limit the most tests that may run at once;
+     *   0 (or anything less) for no limit
+     * @return error status; see the EX_* flags
+     * @since 0.2_03
+     */
+    public int runvt (int[] todo, int[] plan, Supplier<?> factory,
+        int limit)
+    {
+        ExecutorService threads;
+        boolean virtual = true;
+        try {
+            threads = (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            /* Platform threads are not cheap to park, so
+             * don't make more of them than may run at once */
+            threads = limit > 0 ? Executors.newFixedThreadPool(limit)
+                : Executors.newCachedThreadPool();
+            virtual = false;
+        }
+
+        Executor pool = threads;
+        if (limit > 0 && virtual) {
+            /* Blocking a virtual thread is cheap, so just
+             * let the extra ones wait their turn. */
+            Semaphore turns = new Semaphore(limit);
+            ExecutorService base = threads;
+            pool = task -> base.execute(() -> {
+                turns.acquireUninterruptibly();
+                try {
+                    task.run();
+                }
+                finally {
+                    turns.release();
+                }
+            });
+        }
+
+        try {
+            return run(todo, plan, factory, pool);
+        }
+        finally {
+            threads.shutdown();
+        }
+    }
+
+    /**
+     * Make a fresh {@code TapTest} for a subtest.
+     *
+     * @param planet the subplan
+     * @param origin where its numbers start
+     * @param sink where it writes
+     * @return the subtest, set up like us
+     */
+    private TapTest spawn (int planet, int origin, TapSink sink)
+    {
+        TapTest self = new TapTest();
+        self.subplan(planet);
+        self.origin(origin);
+        self.sink = sink;
+        self.terse = terse;
+        self.locate = locate;
+        self.concurrent = concurrent;
+        self.timing = timing;
+        self.timing_each = timing_each;
+        self.version = version;
+        return self;
+    }
+
+    /**
+     * Run a single test for {@link #run}.  Whatever goes wrong is
+     * reported through {@code self}, so that it ends up next to the
+     * rest of the test's output.
+     *
+     * @param t test number
+     * @param self the test's own {@code TapTest}
+     * @param factory a function that returns a reference to
+     *   a fresh test object
+     * @return error status; see the EX_* flags
+     */
+    private static int run_one (int t, TapTest self, Supplier<?> factory)
+    {
+        long start = System.nanoTime();
+        self.mark = start;
+        try {
+            return call_one(t, self, factory);
+        }
+        finally {
+            self.spent = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * The part of {@link #run_one} that we time.
+     *
+     * @param t test number
+     * @param self the test's own {@code TapTest}
+     * @param factory a function that returns a reference to
+     *   a fresh test object
+     * @return error status; see the EX_* flags
+     */
+    private static int call_one (int t, TapTest self, Supplier<?> factory)
+    {
+        String testName = "test" + t;
+
+        Object user;
+
+        try {
+            user = factory.get();
+        }
+        catch (Exception e) {
+            self.diag (testName + ": construction failed");
+            self.confess (e);
+            return EX_ERRINIT;
+        }
+
+        if (user == null) {
+            self.diag (testName + ": constructor returned null");
+            return EX_ERRINIT;
+        }
+
+        Class<?> type = user.getClass();
+        Dispatch tests = Dispatch.of(type);
+        int k = tests.find(t);
+        if (k < 0) {
+            self.diag (testName + ": method not found in "
+                + type.getName());
+            return EX_NOTMETH;
+        }
+
+        try {
+            tests.call(k, user, self);
+        }
+        catch (IllegalAccessException
+                | IllegalArgumentException e)
+        {
+            self.diag (testName + ": invocation error");
+            self.confess (e);
+            return EX_BADCALL;
+        }
+        catch (InvocationTargetException e) {
+            Throwable c;
+            int offense;
+            if (e.getCause() instanceof ExceptionInInitializerError) {
+                self.diag (testName + ": static initializer error");
+                c = e.getCause().getCause();
+                offense = EX_BADINIT;
+            }
+            else {
+                self.diag (testName + ": runtime exception/error");
+                c = e.getCause();
+                offense = EX_BADMETH;
+            }
+            self.confess (c);
+            return offense;
+        }
+        return 0;
+    }
+
+    /**
+     * Count a test that {@link #run_one} ran towards our own total.
+     *
+     * @param t test number
+     * @param planet its subplan
+     * @param self its {@code TapTest}
+     * @param status what {@link #run_one} returned
+     * @return error status; see the EX_* flags
+     */
+    private int tally (int t, int planet, TapTest self, int status)
+    {
+        if ((status & EX_TIMEOUT) != 0) {
+            /* Count what it did before we gave up on it, and fail
+             * the rest.  (It may still be going, so don't ask it.) */
+            diag ("test%d %s", t, self.why);
+            int real = count + planet;
+            fail = self.expired_fail;
+            int lost = self.expired_fail;
+            /* Go on numbering from where it left off */
+            count = self.origin + self.expired;
+            for (int k = self.expired; k < planet; ++k) {
+                check (false, "test" + t + " " + self.why, false, 0, null);
+                ++lost;
+            }
+            count = real;
+            long limit = timeout > 0
+                ? TimeUnit.MILLISECONDS.toNanos(timeout) : -1;
+            reckon(t, limit, lost, true);
+            return status | EX_BADPLAN;
+        }
+
+        if (timing) {
+            clock ("test" + t, self.spent);
+        }
+
+        /* The test never got to run, so there is nothing to count */
+        if ((status & (EX_ERRINIT | EX_NOTMETH | EX_BADCALL)) != 0) {
+            reckon(t, self.spent, 0, true);
+            return status;
+        }
+
+        /* We are more likely to use subtests than not, yes...
+         * But subtests are still SUB-tests -- we are going to
+         * report that for the FULL test here. */
+        int subcount = self.count();
+        int subfail = self.failed();
+        if (subcount != planet) {
+            diag ("%s planned to run %d test%s, "
+                + "but ran %d instead.",
+                "test" + t, planet,
+                planet == 1 ? "" : "s", subcount);
+        }
+        count += subcount;
+        fail = subfail;
+        reckon(t, self.spent, subfail, subfail > 0 || subcount != planet
+            || (status & ~EX_BADPLAN) != 0);
+        return status | EX_BADPLAN;
+    }
+
+    /**
+     * Execute tests that fails fast.  This had to be a
+     * separate method, because we need to throw anything.
+     * Primarily for use in jdb(1) since I have no idea how
+     * to jump to the stack frame of the cause exception
+     * rather than the exception itself.
+     * <p>
+     * Sorry for copy-and-pasting the whole thing; but I
+     * really can't think of a better way to add this feature.
+     *
+     * @param todo list of test numbers
+     * @param plan list of plans; must have the same dimensions
+     * @param factory a function that returns a reference to
+     *   a fresh test object
+     * @param fatal types of exceptions to make fatal
+     * @return error status; see the EX_* flags
+     * @throws NullPointerException if specifically
+     *   if {@code factory} returns null (for EX_ERRINIT)
+     * @throws IllegalStateException if the number of tests run
+     *   in any subtest does not match the provided subplan
+     *   (for EX_BADPLAN)
+     * @throws Throwable literally anything else
+     * @since 0.2_01
+     */
+    public int runff (int[] todo, int[] plan,
+        Supplier<?> factory, int fatal) throws Throwable
+    {
+        int offense = 0;
+
+        for (int i = 0; i < todo.length; ++i) {
+            int t = todo[i];
+            int planet = plan[i];
+            String testName = "test" + t;
+
+            Object user;
+            TapTest self = new TapTest();
+            self.subplan(planet);
+            self.origin(count);
+            self.sink = sink;
+
+            try {
+                user = factory.get();
+            }
+            catch (Exception e) {
+                diag (testName + ": construction failed");
+                offense |= EX_ERRINIT;
+                if ((fatal & offense) != 0) {
+                    throw e;
+                }
+                confess (e);
+                continue;
+            }
+
+            /* Performance-wise, I don't know if this does anything
+             * I'm just doing this because I finally just learned
+             * how to write functional Java (1.8) for once... :) */
+            if ((fatal & EX_ERRINIT) != 0) {
+                Objects.requireNonNull(testName,
+                    () -> testName + ": constructor returned null");
+            }
+            else {
+                if (user == null) {
+                    diag (testName + ": constructor returned null");
+                    offense |= EX_ERRINIT;
+                }
+                continue;
+            }
+
+            Class<?> type = user.getClass();
+            Dispatch tests = Dispatch.of(type);
+            int k = tests.find(t);
+            if (k < 0) {
+                diag (testName + ": method not found in "
+                    + type.getName());
+                offense |= EX_NOTMETH;
+                if ((fatal & offense) != 0) {
+                    throw new NoSuchMethodException(
+                        type.getName() + "." + testName + "(TapTest)");
+                }
+                continue;
+            }
+
+            try {
+                tests.call(k, user, self);
+            }
+            catch (IllegalAccessException
+                    | IllegalArgumentException e)
+            {
+                diag (testName + ": invocation error");
+                offense |= EX_BADCALL;
+                if ((fatal & offense) != 0) {
+                    throw e;
+                }
+                confess (e);
+                continue;
+            }
+            catch (InvocationTargetException e) {
+                Throwable c;
+                if (e.getCause() instanceof ExceptionInInitializerError) {
+                    diag (testName + ": static initializer error");
+                    c = e.getCause().getCause();
+                    offense |= EX_BADINIT;
+                }
+                else {
+                    diag (testName + ": runtime exception/error");
+                    c = e.getCause();
+                    offense |= EX_BADMETH;
+                }
+                if ((fatal & offense) != 0) {
+                    throw c;
+                }
+                confess (c);
+            }
+
+            int subcount = self.count();
+            int subfail = self.failed();
+            if (subcount != planet) {
+                diag ("%s planned to run %d test%s, "
+                    + "but ran %d instead.",
+                    testName, planet,
+                    planet == 1 ? "" : "s", subcount);
+            }
+            offense |= EX_BADPLAN;
+            if ((fatal & offense) != 0) {
+                throw new IllegalStateException(
+                    testName + " subplan foiled");
+            }
+            count += subcount;
+            fail = subfail;
+        }
+
+        return offense;
+    }
+
+    /*
+     * The subtest model is a layer on top of TapTest.java.
+     * Its function is purely informational; the planning and
+     * everything is still controlled by the API there.
+     */
+
+    /** ID of the current subtest. */
+    private int subtest = 0;
+    /** Expected subtotal from the current subtest. */
+    private int subplan = 0;
+    /** Subtotal of the current subtest. */
+    private int subcount = 0;
+    /** Failed subtotal of the current subtest. */
+    private int subfail = 0;
+    /** Whether we are currently in a subtest. */
+    private boolean subtesting = false;
+
+    /** Failed todo tests. */
+    private int subtodo = 0;
+    /** Passed todo tests. */
+    private List<Integer> subdone = new ArrayList<Integer>();
+
+    /**
+     * Declare that all subtests from here must run
+     * this many tests.  This supercedes the subplan()
+     * method that should overridden to be of use in the
+     * previous embedded version.
+     *
+     * @param plan number of test cases expected for
+     *   subsequent subtests to run, if positive; it is
+     *   otherwise ineffective.
+     * @since 0.2_00
+     */
+    public void subplan (int plan)
+    {
+        subplan = plan;
+    }
+
+    /**
+     * Initialize and Enter a subtest.  This switches the subtest
+     * module to a state that must be followed by {@link #done_subtest}.
+     *
+     * @throws IllegalStateException if currently in a subset
+     * @param id the test index.  Used for informational reports.
+     * @since 0.1.6
+     */
+    public void init_subtest (int id)
+    {
+        if (subtesting) {
+            throw new IllegalStateException (
+                "You are already in subtest "
+                + subtest + ".");
+        }
+        subtest = id;
+        subcount = 0;
+        subfail = 0;
+        subdone.clear();
+        subtesting = true;
+        if (version >= 13 && origin >= 0) {
+            note ("Subtest: %d", subtest);
+            nested = true;
+            indent = "    ";
+        }
+        else {
+            note ("Start subtest %d", subtest);
+        }
+        substart = System.nanoTime();
+        mark = substart;
+    }
+
+    /**
+     * Conclude and Exit a subtest.  The reverts the state of
+     * subtest module to the one set by {@link init_subtest}.
+     *
+     * @throws IllegalStateException if not currently in a subset
+     * @return the appropriate return value per P101/P102 requirements.
+     * @since 0.1.6
+     */
+    public boolean done_subtest ()
+    {
+        if (!subtesting) {
+            throw new IllegalStateException (
+                "You are not in an ongoing subtest.");
+        }
+        subtesting = false;
+        /* Be more chatty if we are embedded */
+        boolean embedded = origin < 0;
+        note ("End of subtest %d", subtest);
+        note ("Ran %d test%s and failed %d test%s.",
+                subcount, subcount == 1 ? "" : "s",
+                subfail, subfail == 1 ? "" : "s");
+        if (timing) {
+            clock ("subtest " + subtest, System.nanoTime() - substart);
+        }
+        if (embedded && !subdone.isEmpty()) {
+            /* String.join wants an array/iterable of CharSequences.
+             * Fair enough... but I don't want anything more than a
+             * one-liner, so gonna use Java 8 Stream.... :) */
+            String celebrate = String.join(", ", subdone
+            /* There are two flavors of Integer.toString, one static
+             * and one of instance (overrides Object.toString()).
+             * Sadly, Java can't decide between which one's which.
+             * So we will use something less ambiguous. */
+                .stream().map(String::valueOf)
+            /* Without this, Java would think this is an Object[] */
+                .toArray(String[]::new));
+            diag ("You passed TODO test"
+                + (subdone.size() == 1 ? " " : "s ")
+                + celebrate + "! Nicely done.");
+            diag ("You may tick %s off your bucket list now.",
+                  subdone.size() == 1 ? "that" : "those");
+        }
+        if (subtodo > 0) {
+            log (!embedded, "You still have %d TODO test%s to go.",
+                subtodo, subtodo == 1 ? "" : "s");
+        }
+        try {
+            boolean good = true;
+            if (subfail > 0) {
+                log (!embedded, "It seems that subtest %d failed. "
+                    + "Tough luck.", subtest);
+                good = false;
+            }
+            else if (embedded || nested) {
+                if (subplan > 0 && subcount != subplan) {
+                    diag ("Bad plan! Subtest %d planned to run %d test%s, "
+                        + "but ended up running %d test%s.",
+                        subtest, subplan, subplan == 1 ? "" : "s",
+                        subcount, subcount == 1 ? "" : "s");
+                    good = false;
+                }
+            }
+            if (nested) {
+                /* Close the subtest, and count it as one of ours */
+                sink.println(false, indent + "1.." + subcount);
+                nested = false;
+                indent = "";
+                check (good, "subtest " + subtest, false, 0, null);
+            }
+            return good;
+        }
+        finally {
+            sink.flush();
+        }
+    }
+
+    /**
+     * Offset to add to printed test number. May be the number of
+     * tests before this test.  Whatever makes sense to you.
+     */
+    private int origin = 0;
+
+    /**
+     * Override offset to add to the printed test number.  Pass Negative
+     * to enable embedded mode (for JUnit5).
+     * @param offset the desired offset
+     * @since 0.1.6
+     */
+    public void origin(int offset) { origin = offset; }
+
+    /* Advanced test functions */
+
+    /**
+     * Assert {@code a} equals {@code b}.
+     * Null is only considered to be equal to null.
+     * Mimics is() in Test::More.  Note that the order
+     * is reversed compared to JUnit.
+     *
+     * @param a left operand; what we got
+     * @param b right operand; what we expected
+     * @param mess test name
+     * @return whether {@code a} and {@code b} are equal
+     * @since 0.1.6
+     */
+    public boolean is(Object a, Object b, String mess) {
+        return is(a, b, mess, 1);
+    }
+
+    /**
+     * Alternative version with call stack depth.
+     *
+     * @param a a
+     * @param b b
+     * @param testName test name
+     * @param depth stack depth
+     * @return the same thing
+     * @since 0.1.6
+     */
+    public boolean is(
+        Object a, Object b, String testName, int depth
+    ) {
+        boolean good = !(
             a == null ^ b == null ||
             a != null && !a.equals(b)
         );
-        if (!good) {
+        if (good) {
+            return same (testName, depth + 1);
+        }
+        return differ (testName, a, b,
+            a == null ? null : a.getClass().getName(),
+            b == null ? null : b.getClass().getName(),
+            null, null, depth + 1);
+    }
+
+    /**
+     * The passing half of {@link #is}.
+     *
+     * @param testName test name
+     * @param depth stack depth, as for {@link #is(Object, Object,
+     *   String, int)}
+     * @return true
+     */
+    private boolean same (String testName, int depth)
+    {
+        if (testName.indexOf('\n') < 0) {
+            /* Nothing to add, so skip the StringBuilder.  (An empty
+             * name still has to look like the line it used to be.) */
+            return ok (true, testName.isEmpty() ? "\n" : testName, depth + 1);
+        }
+        return ok (true, testName + "\n", depth + 1);
+    }
+
+    /**
+     * The failing half of {@link #is}: say what we got and what we
+     * expected, as {@code #} lines or in a YAML block.
+     *
+     * @param testName test name
+     * @param a what we got
+     * @param b what we expected
+     * @param atype the type of {@code a}, or null if there is none
+     * @param btype the type of {@code b}, or null if there is none
+     * @param within how close they had to be, or null if they had
+     *   to be equal
+     * @param path where in {@code a} and {@code b} they differ, or
+     *   null if they are what differs
+     * @param depth stack depth, as for {@link #is(Object, Object,
+     *   String, int)}
+     * @return false
+     */
+    private boolean differ (String testName, Object a, Object b,
+        String atype, String btype, String within, String path, int depth)
+    {
+        if (version >= 13) {
+            Map<String, Object> data = new LinkedHashMap<String, Object>();
+            Map<String, Object> type = new LinkedHashMap<String, Object>();
+            /* As text, the way the # lines have it; only maps of
+             * our own go into yaml() as maps */
+            data.put("got", Objects.toString(a, null));
+            data.put("expected", Objects.toString(b, null));
+            type.put("got", atype);
+            type.put("expected", btype);
+            data.put("type", type);
+            if (within != null) {
+                data.put("within", within);
+            }
+            if (path != null) {
+                data.put("path", path);
+            }
+            return check (false, testName, true, depth + 2, data);
+        }
+        StringBuilder mess = new StringBuilder();
+        mess.append(testName); mess.append("\n");
+        if (path != null) {
+            mess.append("Verdict: "); mess.append(path);
+            mess.append(" differs\n");
+        }
+        else {
             mess.append(String.format("Verdict: %s != %s\n", a, b));
-            mess.append("      got: ");
-            if (a != null) {
-                mess.append(a.getClass().getName()); mess.append(" - ");
+        }
+        mess.append("      got: ");
+        if (atype != null) {
+            mess.append(atype); mess.append(" - ");
+        }
+        mess.append(a); mess.append("\n");
+
+        mess.append(" expected: ");
+        if (btype != null) {
+            mess.append(btype); mess.append(" - ");
+        }
+        mess.append(b); mess.append("\n");
+        if (within != null) {
+            mess.append("   within: "); mess.append(within);
+            mess.append("\n");
+        }
+        return ok (false, mess.toString(), depth + 1);
+    }
+
+    /*
+     * Primitive flavors of is().  These don't box anything unless the
+     * assertion fails, so a passing one costs about as much as ok().
+     * (In terse mode, or with an events() sink and the same test name
+     * every time, that means it allocates nothing at all.)
+     *
+     * Like JUnit's assertEquals(long, long), they make a call that
+     * mixes a boxed number with a primitive one ambiguous; cast one
+     * of them, or unbox the boxed one, to say which one you meant.
+     */
+
+    /**
+     * Assert two {@code int}s are equal.
+     *
+     * @param a what we got
+     * @param b what we expected
+     * @param mess test name
+     * @return whether {@code a == b}
+     * @since 0.2_03
+     */
+    public boolean is (int a, int b, String mess)
+    {
+        if (a == b) {
+            return same (mess, 1);
+        }
+        return differ (mess, a, b, "int", "int", null, null, 1);
+    }
+
+    /**
+     * Assert two {@code long}s are equal.
+     *
+     * @param a what we got
+     * @param b what we expected
+     * @param mess test name
+     * @return whether {@code a == b}
+     * @since 0.2_03
+     */
+    public boolean is (long a, long b, String mess)
+    {
+        if (a == b) {
+            return same (mess, 1);
+        }
+        return differ (mess, a, b, "long", "long", null, null, 1);
+    }
+
+    /**
+     * Assert two {@code char}s are equal.
+     *
+     * @param a what we got
+     * @param b what we expected
+     * @param mess test name
+     * @return whether {@code a == b}
+     * @since 0.2_03
+     */
+    public boolean is (char a, char b, String mess)
+    {
+        if (a == b) {
+            return same (mess, 1);
+        }
+        return differ (mess, a, b, "char", "char", null, null, 1);
+    }
+
+    /**
+     * Assert two {@code double}s are close enough: their difference is
+     * at most {@code eps} times the bigger of the two (in absolute
+     * value), or at most {@code eps} itself if both are smaller than 1.
+     * So {@code 1e-9} is about nine significant digits, without making
+     * {@code 1e-300} and {@code 0} different.
+     * <p>
+     * Equal infinities are equal, and so are two NaNs (because you
+     * probably meant it); a NaN is not close to anything else.  With
+     * {@code eps} 0, this is plain {@code ==}, except for NaN.
+     *
+     * @param a what we got
+     * @param b what we expected
+     * @param eps relative tolerance
+     * @param mess test name
+     * @return whether {@code a} and {@code b} are close enough
+     * @see #is_ulp
+     * @since 0.2_03
+     */
+    public boolean is (double a, double b, double eps, String mess)
+    {
+        double scale = Math.max(1.0, Math.max(Math.abs(a), Math.abs(b)));
+        if (a == b || a != a && b != b || Math.abs(a - b) <= eps * scale
+                && scale != Double.POSITIVE_INFINITY) {
+            return same (mess, 1);
+        }
+        return differ (mess, a, b, "double", "double",
+            "relative " + eps, null, 1);
+    }
+
+    /**
+     * Assert two {@code double}s are at most {@code ulps} units in the
+     * last place apart; that is, there are fewer than {@code ulps}
+     * other doubles between them.  0 means {@code ==} (NaN excepted,
+     * as in {@link #is(double, double, double, String)}).  The two
+     * zeros are 0 ulps apart.
+     *
+     * @param a what we got
+     * @param b what we expected
+     * @param ulps how many units in the last place they may differ by
+     * @param mess test name
+     * @return whether {@code a} and {@code b} are close enough
+     * @since 0.2_03
+     */
+    public boolean is_ulp (double a, double b, long ulps, String mess)
+    {
+        /* Doubles sort like their bits, as long as the negative ones
+         * are flipped around to count down from zero */
+        long ia = Double.doubleToLongBits(a);
+        long ib = Double.doubleToLongBits(b);
+        ia = ia < 0 ? Long.MIN_VALUE - ia : ia;
+        ib = ib < 0 ? Long.MIN_VALUE - ib : ib;
+        long d = ia - ib;
+        /* (No overflow means a and b have the same sign, or d does) */
+        boolean near = ((ia ^ ib) >= 0 || (d ^ ia) >= 0)
+            && d >= -ulps && d <= ulps;
+        if (a == b || a != a && b != b || near && a == a && b == b) {
+            return same (mess, 1);
+        }
+        return differ (mess, a, b, "double", "double",
+            ulps + " ulp", null, 1);
+    }
+
+    /**
+     * Assert {@code got} and {@code expected} have the same structure
+     * and the same things in them, all the way down.  Arrays (of
+     * anything), {@link List}s, {@link Set}s and {@link Map}s are
+     * looked into; anything else is compared with {@code equals()}.
+     * Lists and arrays are the same if their elements are the same
+     * in the same order.  Maps are the same if they have the same keys
+     * with the same values; two {@link SortedMap}s are walked side by
+     * side, in order.  Sets go by {@code contains()}, so their
+     * elements are only compared with {@code equals()}.
+     * <p>
+     * We stop at the first difference and say where it is, like
+     * "element 2 of key 93", and print only the two things that
+     * differ there (and only the first 100 characters of those).
+     * A list is never printed, only its size.  Other than that, this
+     * needs no more memory than how deep the structure is, so feel
+     * free to compare a couple million elements.
+     * <p>
+     * Don't give it anything that contains itself.
+     *
+     * @param got what we got
+     * @param expected what we expected
+     * @param mess test name
+     * @return whether they are the same
+     * @since 0.2_03
+     */
+    public boolean is_deeply (Object got, Object expected, String mess)
+    {
+        Diff d = deeply(got, expected);
+        if (d == null) {
+            return same (mess, 1);
+        }
+        String path = d.path.length() == 0 ? null : d.path.toString();
+        if (path == null && d.got.equals(d.expected)
+            && !Objects.equals(d.gottype, d.exptype))
+        {
+            /* Like a list and a set with the same number of things */
+            path = "type";
+        }
+        return differ (mess, d.got, d.expected, d.gottype, d.exptype,
+            null, path, 1);
+    }
+
+    /**
+     * Where two things compared by {@link #is_deeply} differ first.
+     * The path is made on the way back up, so it is only ever made
+     * for the one difference.
+     */
+    private static final class Diff
+    {
+        /** Stands for a key or an element that isn't there. */
+        private static final String MISSING = new String("(missing)");
+
+        /** How we print the two things that differ. */
+        private final String got, expected;
+        /** Their types, or null for nulls and missing things. */
+        private final String gottype, exptype;
+        /** Where they are, innermost first. */
+        private final StringBuilder path = new StringBuilder();
+
+        private Diff (Object got, Object expected)
+        {
+            this.got = show(got);
+            this.expected = show(expected);
+            this.gottype = type(got);
+            this.exptype = type(expected);
+        }
+
+        /**
+         * Say that two containers have different sizes.
+         *
+         * @param got what we got
+         * @param expected what we expected
+         * @param ngot the size of {@code got}
+         * @param nexpected the size of {@code expected}
+         * @return the difference
+         */
+        private static Diff sizes (Object got, Object expected,
+            int ngot, int nexpected)
+        {
+            boolean map = got instanceof Map;
+            return new Diff(count(ngot, map), count(nexpected, map),
+                type(got), type(expected));
+        }
+
+        private Diff (String got, String expected,
+            String gottype, String exptype)
+        {
+            this.got = got;
+            this.expected = expected;
+            this.gottype = gottype;
+            this.exptype = exptype;
+        }
+
+        /**
+         * Put the difference one level further down.
+         *
+         * @param where where, in the thing that contains it
+         * @return this
+         */
+        private Diff in (String where)
+        {
+            if (path.length() > 0) {
+                path.append(" of ");
+            }
+            path.append(where);
+            return this;
+        }
+
+        /**
+         * {@return how many of something there are, in English}
+         *
+         * @param n how many
+         * @param map entries of a map, rather than elements
+         */
+        private static String count (int n, boolean map)
+        {
+            if (map) {
+                return n + (n == 1 ? " entry" : " entries");
+            }
+            return n + (n == 1 ? " element" : " elements");
+        }
+
+        private static String type (Object x)
+        {
+            return x == null || x == MISSING ? null
+                : x.getClass().getTypeName();
+        }
+
+        /**
+         * Print something without printing all of it.
+         *
+         * @param x anything
+         * @return a short description
+         */
+        private static String show (Object x)
+        {
+            if (x == null) {
+                return "null";
+            }
+            if (x.getClass().isArray()) {
+                return "(" + count(Array.getLength(x), false) + ")";
+            }
+            if (x instanceof Collection) {
+                return "(" + count(((Collection<?>) x).size(), false)
+                    + ")";
+            }
+            if (x instanceof Map) {
+                return "(" + count(((Map<?, ?>) x).size(), true) + ")";
+            }
+            String text = x.toString();
+            if (text.length() > 100) {
+                text = text.substring(0, 97) + "...";
+            }
+            return text;
+        }
+    }
+
+    /**
+     * Find the first place where two things differ.
+     *
+     * @param a what we got
+     * @param b what we expected
+     * @return the difference, or null if there is none
+     */
+    private static Diff deeply (Object a, Object b)
+    {
+        if (a == b) {
+            return null;
+        }
+        if (a == null || b == null) {
+            return new Diff(a, b);
+        }
+        Class<?> ta = a.getClass();
+        Class<?> tb = b.getClass();
+        if (ta.isArray() || tb.isArray()) {
+            if (a instanceof Object[] && b instanceof Object[]) {
+                return deeply((Object[]) a, (Object[]) b);
+            }
+            if (ta != tb) {
+                return new Diff(a, b);
+            }
+            /* The same kind of primitive array */
+            int na = Array.getLength(a);
+            int nb = Array.getLength(b);
+            int i = a instanceof int[] ? Arrays.mismatch((int[]) a, (int[]) b)
+                : a instanceof long[] ? Arrays.mismatch((long[]) a, (long[]) b)
+                : a instanceof double[]
+                    ? Arrays.mismatch((double[]) a, (double[]) b)
+                : a instanceof byte[] ? Arrays.mismatch((byte[]) a, (byte[]) b)
+                : a instanceof char[] ? Arrays.mismatch((char[]) a, (char[]) b)
+                : a instanceof float[]
+                    ? Arrays.mismatch((float[]) a, (float[]) b)
+                : a instanceof short[]
+                    ? Arrays.mismatch((short[]) a, (short[]) b)
+                : Arrays.mismatch((boolean[]) a, (boolean[]) b);
+            if (i < 0) {
+                return null;
+            }
+            if (i == Math.min(na, nb)) {
+                return Diff.sizes(a, b, na, nb);
+            }
+            return new Diff(Array.get(a, i),
+                Array.get(b, i)).in("element " + i);
+        }
+        if (a instanceof Map && b instanceof Map) {
+            return deeply((Map<?, ?>) a, (Map<?, ?>) b);
+        }
+        if (a instanceof Set && b instanceof Set) {
+            Set<?> sa = (Set<?>) a;
+            Set<?> sb = (Set<?>) b;
+            if (sa.size() != sb.size()) {
+                return Diff.sizes(a, b, sa.size(), sb.size());
+            }
+            for (Object e : sb) {
+                if (!sa.contains(e)) {
+                    return new Diff(Diff.MISSING, e)
+                        .in("element " + Diff.show(e));
+                }
+            }
+            return null;
+        }
+        if (a instanceof Collection && b instanceof Collection
+                && !(a instanceof Set) && !(b instanceof Set)) {
+            /* Lists, and anything else with an order (we hope) */
+            Iterator<?> ia = ((Collection<?>) a).iterator();
+            Iterator<?> ib = ((Collection<?>) b).iterator();
+            for (int i = 0; ia.hasNext() && ib.hasNext(); ++i) {
+                Diff d = deeply(ia.next(), ib.next());
+                if (d != null) {
+                    return d.in("element " + i);
+                }
+            }
+            if (ia.hasNext() || ib.hasNext()) {
+                return Diff.sizes(a, b, ((Collection<?>) a).size(),
+                    ((Collection<?>) b).size());
+            }
+            return null;
+        }
+        if (a instanceof Collection || a instanceof Map
+                || b instanceof Collection || b instanceof Map) {
+            return new Diff(a, b);
+        }
+        return a.equals(b) ? null : new Diff(a, b);
+    }
+
+    /**
+     * {@link #deeply(Object, Object)} for arrays of objects.
+     *
+     * @param a what we got
+     * @param b what we expected
+     * @return the difference, or null if there is none
+     */
+    private static Diff deeply (Object[] a, Object[] b)
+    {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; ++i) {
+            Diff d = deeply(a[i], b[i]);
+            if (d != null) {
+                return d.in("element " + i);
+            }
+        }
+        if (a.length != b.length) {
+            return Diff.sizes(a, b, a.length, b.length);
+        }
+        return null;
+    }
+
+    /**
+     * {@link #deeply(Object, Object)} for maps.
+     *
+     * @param a what we got
+     * @param b what we expected
+     * @return the difference, or null if there is none
+     */
+    private static Diff deeply (Map<?, ?> a, Map<?, ?> b)
+    {
+        if (a.size() != b.size()) {
+            return Diff.sizes(a, b, a.size(), b.size());
+        }
+        if (a instanceof SortedMap && b instanceof SortedMap
+                && Objects.equals(((SortedMap<?, ?>) a).comparator(),
+                    ((SortedMap<?, ?>) b).comparator())) {
+            @SuppressWarnings("unchecked")
+            Comparator<Object> order =
+                (Comparator<Object>) ((SortedMap<?, ?>) a).comparator();
+            if (order == null) {
+                @SuppressWarnings("unchecked")
+                Comparator<Object> natural = (x, y) ->
+                    ((Comparable<Object>) x).compareTo(y);
+                order = natural;
+            }
+            Iterator<? extends Map.Entry<?, ?>> ia = a.entrySet().iterator();
+            Iterator<? extends Map.Entry<?, ?>> ib = b.entrySet().iterator();
+            while (ia.hasNext() && ib.hasNext()) {
+                Map.Entry<?, ?> ea = ia.next();
+                Map.Entry<?, ?> eb = ib.next();
+                int c = order.compare(ea.getKey(), eb.getKey());
+                if (c < 0) {
+                    /* We got a key they didn't expect */
+                    return new Diff(ea.getValue(), Diff.MISSING)
+                        .in("key " + Diff.show(ea.getKey()));
+                }
+                if (c > 0) {
+                    return new Diff(Diff.MISSING, eb.getValue())
+                        .in("key " + Diff.show(eb.getKey()));
+                }
+                Diff d = deeply(ea.getValue(), eb.getValue());
+                if (d != null) {
+                    return d.in("key " + Diff.show(eb.getKey()));
+                }
+            }
+            return null;
+        }
+        for (Map.Entry<?, ?> e : b.entrySet()) {
+            Object k = e.getKey();
+            Object v = a.get(k);
+            if (v == null && !a.containsKey(k)) {
+                return new Diff(Diff.MISSING, e.getValue())
+                    .in("key " + Diff.show(k));
+            }
+            Diff d = deeply(v, e.getValue());
+            if (d != null) {
+                return d.in("key " + Diff.show(k));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@link #is(Object, Object, String)}, but the test name is
+     * only made if it is going to be printed.
+     *
+     * @param a left operand; what we got
+     * @param b right operand; what we expected
+     * @param mess makes the test name
+     * @return whether {@code a} and {@code b} are equal
+     * @see #terse(boolean)
+     * @since 0.2_03
+     */
+    public boolean is (Object a, Object b, Supplier<String> mess)
+    {
+        if (terse && (a == null ? b == null : a.equals(b))) {
+            return ok (true, "", false, 0);
+        }
+        return is (a, b, mess.get(), 1);
+    }
+
+    /**
+     * The {@code testN(TapTest)} methods of a class, looked up once
+     * and kept for as long as the class is around.  We used to call
+     * {@link Class#getDeclaredMethod} (and catch its exception, for
+     * tests that don't exist) every time we ran a test.
+     * <p>
+     * Methods we are allowed to call get a {@link MethodHandle};
+     * anything else goes through {@link Method#invoke} like before,
+     * so the error is the same as it always was.
+     */
+    private static final class Dispatch
+    {
+        /** One table per class. */
+        private static final ClassValue<Dispatch> TABLES =
+            new ClassValue<Dispatch>() {
+                @Override
+                protected Dispatch computeValue (Class<?> type)
+                {
+                    return new Dispatch(type);
+                }
+            };
+
+        /** Everything gets called as {@code (Object, TapTest)void}. */
+        private static final MethodType CALL = MethodType.methodType(
+            void.class, Object.class, TapTest.class);
+
+        /** Test numbers, in ascending order. */
+        private final int[] numbers;
+        /** The method for each of {@link #numbers}. */
+        private final Method[] methods;
+        /** A handle to each of {@link #methods}, or null. */
+        private final MethodHandle[] handles;
+
+        private Dispatch (Class<?> type)
+        {
+            List<Method> found = new ArrayList<Method>();
+            for (Method m : type.getDeclaredMethods()) {
+                if (number(m) >= 0) {
+                    found.add(m);
+                }
+            }
+            found.sort((m, n) -> Integer.compare(number(m), number(n)));
+
+            int n = found.size();
+            numbers = new int[n];
+            methods = found.toArray(new Method[n]);
+            handles = new MethodHandle[n];
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            for (int i = 0; i < n; ++i) {
+                Method m = methods[i];
+                numbers[i] = number(m);
+                try {
+                    MethodHandle h = lookup.unreflect(m);
+                    if (Modifier.isStatic(m.getModifiers())) {
+                        h = MethodHandles.dropArguments(h, 0, Object.class);
+                    }
+                    handles[i] = h.asType(CALL);
+                }
+                catch (IllegalAccessException e) {
+                    /* leave it to Method.invoke to complain */
+                }
+            }
+        }
+
+        /**
+         * {@return the table for {@code type}}
+         * @param type class of the test object
+         */
+        static Dispatch of (Class<?> type)
+        {
+            return TABLES.get(type);
+        }
+
+        /**
+         * {@return N if {@code m} is {@code testN(TapTest)}, or -1}
+         * @param m a method
+         */
+        private static int number (Method m)
+        {
+            String name = m.getName();
+            Class<?>[] params = m.getParameterTypes();
+            if (!name.startsWith("test") || name.length() == 4
+                || params.length != 1 || params[0] != TapTest.class)
+            {
+                return -1;
+            }
+            int n;
+            try {
+                n = Integer.parseInt(name.substring(4));
+            }
+            catch (NumberFormatException e) {
+                return -1;
+            }
+            /* Only the name "test" + t would have been found */
+            return n >= 0 && name.equals("test" + n) ? n : -1;
+        }
+
+        /**
+         * Find a test.
+         *
+         * @param t test number
+         * @return its index, or a negative number if there is none
+         */
+        int find (int t)
+        {
+            /* Tests are usually numbered without gaps */
+            if (numbers.length > 0) {
+                long i = (long) t - numbers[0];
+                if (i >= 0 && i < numbers.length && numbers[(int) i] == t) {
+                    return (int) i;
+                }
+            }
+            return Arrays.binarySearch(numbers, t);
+        }
+
+        /**
+         * Call a test, failing the way {@link Method#invoke} does.
+         *
+         * @param k index from {@link #find}
+         * @param user the test object
+         * @param self its {@code TapTest}
+         * @throws IllegalAccessException if we may not call it
+         * @throws InvocationTargetException if the test threw
+         */
+        void call (int k, Object user, TapTest self)
+            throws IllegalAccessException, InvocationTargetException
+        {
+            MethodHandle h = handles[k];
+            if (h == null) {
+                methods[k].invoke(user, self);
+                return;
+            }
+            try {
+                h.invokeExact(user, self);
+            }
+            catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+    }
+
+    /**
+     * Makes random cases for {@link #forall}, and smaller versions of
+     * a case for when it turns out to be a counterexample.  The
+     * {@code size} goes from 0 up to 100 over the cases of a run, so
+     * the first cases are small and the later ones bigger; it is up
+     * to each generator what that means.
+     * <p>
+     * The ones here cover the usual suspects.  Number generators come
+     * up with their bounds, 0 and &plusmn;1 more often than chance
+     * would have it, and shrink towards 0 (or the bound nearest to
+     * it); strings, lists and maps shrink by dropping parts of them
+     * first, then by shrinking what is left.
+     *
+     * @param <T> type of the cases
+     * @since 0.2_03
+     */
+    public interface Gen<T>
+    {
+        /**
+         * Make a case.
+         *
+         * @param r where randomness comes from
+         * @param size how big it may be, roughly; 0 to 100
+         * @return the case
+         */
+        T make (SplittableRandom r, int size);
+
+        /**
+         * Smaller versions of a case, most promising first.  They are
+         * only made as far as they are used.
+         *
+         * @param x the case
+         * @return smaller cases; none by default
+         */
+        default Stream<T> shrink (T x)
+        {
+            return Stream.empty();
+        }
+
+        /**
+         * Make a generator out of two lambdas.
+         *
+         * @param <T> type of the cases
+         * @param make makes a case
+         * @param shrink makes smaller cases
+         * @return the generator
+         */
+        private static <T> Gen<T> gen (
+            BiFunction<SplittableRandom, Integer, T> make,
+            Function<T, Stream<T>> shrink)
+        {
+            return new Gen<T>() {
+                @Override
+                public T make (SplittableRandom r, int size)
+                {
+                    return make.apply(r, size);
+                }
+
+                @Override
+                public Stream<T> shrink (T x)
+                {
+                    return shrink.apply(x);
+                }
+            };
+        }
+
+        /**
+         * {@return longs from {@code lo} to {@code hi}, inclusive}
+         *
+         * @param lo the least
+         * @param hi the most
+         */
+        static Gen<Long> longs (long lo, long hi)
+        {
+            if (lo > hi) {
+                throw new IllegalArgumentException(
+                    "empty range " + lo + ".." + hi);
+            }
+            long target = Math.max(lo, Math.min(hi, 0));
+            return gen((r, size) -> {
+                if (r.nextInt(8) == 0) {
+                    /* Where the bugs are */
+                    long[] edge = { lo, hi, target, target + 1, target - 1 };
+                    long x = edge[r.nextInt(edge.length)];
+                    return Math.max(lo, Math.min(hi, x));
+                }
+                if (hi == Long.MAX_VALUE) {
+                    return lo == Long.MIN_VALUE
+                        ? r.nextLong() : r.nextLong(lo - 1, hi) + 1;
+                }
+                return r.nextLong(lo, hi + 1);
+            }, x -> {
+                /* target first, then halfway there, and so on */
+                long d = x - target;
+                if (x < target != d < 0) {
+                    /* Too far apart for a long */
+                    d = x / 2 - target / 2;
+                }
+                return Stream.iterate(d, k -> k != 0, k -> k / 2)
+                    .map(k -> x - k);
+            });
+        }
+
+        /**
+         * {@return ints from {@code lo} to {@code hi}, inclusive}
+         *
+         * @param lo the least
+         * @param hi the most
+         */
+        static Gen<Integer> ints (int lo, int hi)
+        {
+            Gen<Long> g = longs(lo, hi);
+            return gen((r, size) -> (int) (long) g.make(r, size),
+                x -> g.shrink((long) x).map(y -> (int) (long) y));
+        }
+
+        /** {@return ints from {@code -size} to {@code size}} */
+        static Gen<Integer> ints ()
+        {
+            Gen<Integer> g = ints(-100, 100);
+            return gen((r, size) -> r.nextInt(-size, size + 1), g::shrink);
+        }
+
+        /**
+         * {@return doubles from {@code lo} (inclusive) to {@code hi}
+         * (exclusive)}
+         *
+         * @param lo the least
+         * @param hi just over the most
+         */
+        static Gen<Double> doubles (double lo, double hi)
+        {
+            /* hi itself is never made, so 0 or just under hi */
+            double target = Math.max(lo, hi > 0 ? 0 : Math.nextDown(hi));
+            return gen((r, size) -> {
+                if (r.nextInt(8) == 0) {
+                    return r.nextBoolean() ? lo : target;
+                }
+                return r.nextDouble(lo, hi);
+            }, x -> {
+                /* target, a whole number, then halfway there, and so on */
+                double d = x - target;
+                return Stream.concat(Stream.of(target, Math.rint(x)),
+                        Stream.iterate(d / 2, k -> x - k != x, k -> k / 2)
+                            .map(k -> x - k))
+                    .filter(y -> y >= lo && y < hi && Math.abs(y - target)
+                        < Math.abs(x - target));
+            });
+        }
+
+        /** {@return true or false} */
+        static Gen<Boolean> booleans ()
+        {
+            return gen((r, size) -> r.nextBoolean(),
+                x -> x ? Stream.of(false) : Stream.empty());
+        }
+
+        /**
+         * {@return characters from {@code lo} to {@code hi}, shrinking
+         * towards {@code lo}}
+         *
+         * @param lo the least
+         * @param hi the most
+         */
+        static Gen<Character> chars (char lo, char hi)
+        {
+            Gen<Long> g = longs(0, hi - lo);
+            return gen((r, size) -> (char) (lo + g.make(r, size)),
+                x -> g.shrink((long) (x - lo)).map(y -> (char) (lo + y)));
+        }
+
+        /**
+         * {@return strings of up to {@code size} characters from
+         * {@code c}}
+         *
+         * @param c the characters
+         */
+        static Gen<String> strings (Gen<Character> c)
+        {
+            Gen<List<Character>> g = lists(c);
+            return gen((r, size) -> {
+                StringBuilder s = new StringBuilder();
+                for (char ch : g.make(r, size)) {
+                    s.append(ch);
+                }
+                return s.toString();
+            }, x -> g.shrink(x.chars().mapToObj(ch -> (char) ch).toList())
+                .map(l -> l.stream().map(String::valueOf)
+                    .collect(Collectors.joining())));
+        }
+
+        /** {@return printable ASCII strings of up to {@code size}} */
+        static Gen<String> strings ()
+        {
+            return strings(chars(' ', '~'));
+        }
+
+        /**
+         * {@return lists of up to {@code size} things from {@code e}}
+         *
+         * @param <T> type of the things
+         * @param e the things
+         */
+        static <T> Gen<List<T>> lists (Gen<T> e)
+        {
+            return gen((r, size) -> {
+                int n = r.nextInt(size + 1);
+                List<T> l = new ArrayList<T>(n);
+                for (int i = 0; i < n; ++i) {
+                    l.add(e.make(r, size));
+                }
+                return l;
+            }, x -> {
+                int n = x.size();
+                /* Drop halves, then quarters, ... then single ones */
+                Stream<List<T>> fewer = IntStream.iterate(n, k -> k > 0,
+                    k -> k / 2).boxed().flatMap(k -> IntStream
+                        .iterate(0, i -> i + k <= n, i -> i + k)
+                        .mapToObj(i -> {
+                            List<T> l = new ArrayList<T>(x.subList(0, i));
+                            l.addAll(x.subList(i + k, n));
+                            return l;
+                        }));
+                Stream<List<T>> smaller = IntStream.range(0, n).boxed()
+                    .flatMap(i -> e.shrink(x.get(i)).map(y -> {
+                        List<T> l = new ArrayList<T>(x);
+                        l.set(i, y);
+                        return l;
+                    }));
+                return Stream.concat(fewer, smaller);
+            });
+        }
+
+        /**
+         * {@return pairs of one thing from {@code a} and one from
+         * {@code b}}
+         *
+         * @param <A> type of the first
+         * @param <B> type of the second
+         * @param a the first things
+         * @param b the second things
+         */
+        static <A, B> Gen<Map.Entry<A, B>> pairs (Gen<A> a, Gen<B> b)
+        {
+            return gen((r, size) -> new AbstractMap.SimpleImmutableEntry<A, B>(
+                a.make(r, size), b.make(r, size)),
+                x -> Stream.concat(
+                    a.shrink(x.getKey()).map(y ->
+                        new AbstractMap.SimpleImmutableEntry<A, B>(
+                            y, x.getValue())),
+                    b.shrink(x.getValue()).map(y ->
+                        new AbstractMap.SimpleImmutableEntry<A, B>(
+                            x.getKey(), y))));
+        }
+
+        /**
+         * {@return maps of up to {@code size} keys from {@code k} to
+         * values from {@code v}, in the order they were made}
+         *
+         * @param <K> type of the keys
+         * @param <V> type of the values
+         * @param k the keys
+         * @param v the values
+         */
+        static <K, V> Gen<Map<K, V>> maps (Gen<K> k, Gen<V> v)
+        {
+            Gen<List<Map.Entry<K, V>>> g = lists(pairs(k, v));
+            Function<List<Map.Entry<K, V>>, Map<K, V>> map = l -> {
+                Map<K, V> m = new LinkedHashMap<K, V>();
+                for (Map.Entry<K, V> e : l) {
+                    m.put(e.getKey(), e.getValue());
+                }
+                return m;
+            };
+            return gen((r, size) -> map.apply(g.make(r, size)),
+                x -> g.shrink(new ArrayList<Map.Entry<K, V>>(x.entrySet()))
+                    .map(map));
+        }
+
+        /**
+         * {@return one of {@code choices}, shrinking towards the first}
+         *
+         * @param <T> type of the choices
+         * @param choices the choices
+         */
+        @SafeVarargs
+        static <T> Gen<T> of (T... choices)
+        {
+            List<T> all = new ArrayList<T>(choices.length);
+            for (T x : choices) {
+                all.add(x);
+            }
+            Gen<Integer> g = ints(0, all.size() - 1);
+            return gen((r, size) -> all.get(g.make(r, size)),
+                x -> g.shrink(all.indexOf(x)).map(all::get));
+        }
+    }
+
+    /**
+     * Which tests to run, as {@link #select} picked them.  Most of the
+     * time that is a handful of ranges out of a great many tests, so
+     * that is how we keep them: as runs of consecutive numbers.  When
+     * there are too many runs for that (every n-th test of a shard,
+     * say), we keep a bitmap instead, and when the tests are not in
+     * order (like with {@code --failed-first}), a plain list.  Either
+     * way, you can go through them without making an array of them.
+     *
+     * @since 0.2_03
+     */
+    public static final class Selection implements Iterable<Integer>
+    {
+        /** Where each run starts and ends (inclusive), or null. */
+        private final int[] lo, hi;
+        /** The tests as bits, from {@link #base} up, or null. */
+        private final BitSet bits;
+        /** Test number of bit 0. */
+        private final int base;
+        /** The tests one by one, or null. */
+        private final int[] list;
+        /** How many tests there are. */
+        private final int size;
+        /** Where {@code --state} said to keep the history, or null. */
+        private String state = null;
+
+        private Selection (int[] lo, int[] hi, BitSet bits, int base,
+            int[] list, int size)
+        {
+            this.lo = lo;
+            this.hi = hi;
+            this.bits = bits;
+            this.base = base;
+            this.list = list;
+            this.size = size;
+        }
+
+        /**
+         * Work out -i/-x ranges without going through the tests.
+         * A range overrides the ones before it; tests that no range
+         * covers are in if there are no -i ranges at all.
+         *
+         * @param rangeLo where each range starts, negated for -x
+         * @param rangeHi where each range ends, negated for -x
+         * @param n how many ranges there are
+         * @param avail number of tests we have (1 to avail)
+         * @param offset what to add to each test number
+         * @return the tests
+         */
+        private static Selection paint (int[] rangeLo, int[] rangeHi,
+            int n, int avail, int offset)
+        {
+            /* Paint each range over the ones before it; what is left
+             * is a map of where each stretch starts to its end and
+             * color, none of them overlapping. */
+            TreeMap<Integer, int[]> paint = new TreeMap<Integer, int[]>();
+            boolean includes = false;
+            for (int i = 0; i < n; ++i) {
+                int color = rangeLo[i] > 0 ? +1 : -1;
+                int a = color * rangeLo[i], b = color * rangeHi[i];
+                includes |= color > 0;
+                if (a > b) {
+                    continue;
+                }
+                Map.Entry<Integer, int[]> e = paint.lowerEntry(a);
+                if (e != null && e.getValue()[0] >= a) {
+                    /* Cut the one sticking in from the left short */
+                    int[] v = e.getValue();
+                    if (v[0] > b) {
+                        paint.put(b + 1, new int[] { v[0], v[1] });
+                    }
+                    v[0] = a - 1;
+                }
+                while ((e = paint.ceilingEntry(a)) != null
+                    && e.getKey() <= b)
+                {
+                    paint.remove(e.getKey());
+                    int[] v = e.getValue();
+                    if (v[0] > b) {
+                        paint.put(b + 1, v);
+                    }
+                }
+                paint.put(a, new int[] { b, color });
+            }
+
+            int rest = includes ? -1 : +1;
+            int[] lo = new int[2 * paint.size() + 1];
+            int[] hi = new int[lo.length];
+            int runs = 0, size = 0, at = 1;
+            for (Map.Entry<Integer, int[]> e : paint.entrySet()) {
+                int from = e.getKey(), to = e.getValue()[0];
+                if (from > at && rest > 0) {
+                    runs = run(lo, hi, runs, at, from - 1);
+                }
+                if (e.getValue()[1] > 0) {
+                    runs = run(lo, hi, runs, from, to);
+                }
+                at = to + 1;
+            }
+            if (at <= avail && rest > 0) {
+                runs = run(lo, hi, runs, at, avail);
+            }
+            for (int i = 0; i < runs; ++i) {
+                size += hi[i] - lo[i] + 1;
+                lo[i] += offset;
+                hi[i] += offset;
+            }
+            return new Selection(Arrays.copyOf(lo, runs),
+                Arrays.copyOf(hi, runs), null, 0, null, size);
+        }
+
+        /**
+         * Add a run to the end, or stretch the last one.
+         *
+         * @param lo where runs start
+         * @param hi where runs end
+         * @param runs how many runs there are
+         * @param from where this one starts
+         * @param to where it ends
+         * @return how many runs there are now
+         */
+        private static int run (int[] lo, int[] hi, int runs,
+            int from, int to)
+        {
+            if (runs > 0 && hi[runs - 1] == from - 1) {
+                hi[runs - 1] = to;
+                return runs;
+            }
+            lo[runs] = from;
+            hi[runs] = to;
+            return runs + 1;
+        }
+
+        /**
+         * Keep some tests in whichever way takes the least room.
+         *
+         * @param tests the tests, in the order they should run
+         * @return the tests
+         */
+        static Selection of (int[] tests)
+        {
+            int runs = tests.length == 0 ? 0 : 1;
+            for (int i = 1; i < tests.length; ++i) {
+                if (tests[i] <= tests[i - 1]) {
+                    return new Selection(null, null, null, 0,
+                        tests.clone(), tests.length);
+                }
+                if (tests[i] != tests[i - 1] + 1) {
+                    ++runs;
+                }
+            }
+            if (runs > 1) {
+                /* Two ints a run, or a bit a number in between */
+                long span = (long) tests[tests.length - 1] - tests[0] + 1;
+                if (span / 8 < 8L * runs) {
+                    BitSet bits = new BitSet((int) span);
+                    for (int t : tests) {
+                        bits.set(t - tests[0]);
+                    }
+                    return new Selection(null, null, bits, tests[0], null,
+                        tests.length);
+                }
+            }
+            int[] lo = new int[runs], hi = new int[runs];
+            runs = 0;
+            for (int t : tests) {
+                runs = run(lo, hi, runs, t, t);
+            }
+            return new Selection(lo, hi, null, 0, null, tests.length);
+        }
+
+        /** {@return how many tests there are} */
+        public int size ()
+        {
+            return size;
+        }
+
+        /**
+         * {@return the file {@code --state} named, or null}  Hand it
+         * to {@link TapTest#history} to have run() write down how this
+         * run went, for {@code --failed} to read next time.
+         */
+        public String state ()
+        {
+            return state;
+        }
+
+        /** {@return the tests, in order} */
+        @Override
+        public PrimitiveIterator.OfInt iterator ()
+        {
+            if (list != null) {
+                return Arrays.stream(list).iterator();
+            }
+            if (bits != null) {
+                return bits.stream().map(t -> t + base).iterator();
+            }
+            return new PrimitiveIterator.OfInt() {
+                private int run = 0;
+                private long next = lo.length == 0 ? 0 : lo[0];
+
+                @Override
+                public boolean hasNext ()
+                {
+                    return run < lo.length;
+                }
+
+                @Override
+                public int nextInt ()
+                {
+                    if (run >= lo.length) {
+                        throw new NoSuchElementException();
+                    }
+                    int t = (int) next++;
+                    if (next > hi[run] && ++run < lo.length) {
+                        next = lo[run];
+                    }
+                    return t;
+                }
+            };
+        }
+
+        /** {@return the tests, in order} */
+        public IntStream stream ()
+        {
+            if (list != null) {
+                return Arrays.stream(list);
+            }
+            if (bits != null) {
+                return bits.stream().map(t -> t + base);
+            }
+            return IntStream.range(0, lo.length)
+                .flatMap(i -> IntStream.rangeClosed(lo[i], hi[i]));
+        }
+
+        /** {@return the tests, in order, all written out} */
+        public int[] toArray ()
+        {
+            return list != null ? list.clone() : stream().toArray();
+        }
+
+        /**
+         * Tests {@code from} (inclusive) to {@code to} (exclusive),
+         * counting from 0.
+         *
+         * @param from index of the first test to keep
+         * @param to index of the one after the last
+         * @return those tests
+         */
+        Selection slice (int from, int to)
+        {
+            if (lo == null) {
+                return of(stream().skip(from).limit(to - from).toArray());
+            }
+            int[] a = new int[lo.length], b = new int[lo.length];
+            int runs = 0;
+            long at = 0;
+            for (int i = 0; i < lo.length && at < to; ++i) {
+                long len = (long) hi[i] - lo[i] + 1;
+                long x = Math.max(from, at), y = Math.min(to, at + len);
+                if (x < y) {
+                    a[runs] = (int) (lo[i] + (x - at));
+                    b[runs] = (int) (lo[i] + (y - at) - 1);
+                    ++runs;
+                }
+                at += len;
+            }
+            return new Selection(Arrays.copyOf(a, runs),
+                Arrays.copyOf(b, runs), null, 0, null, Math.max(to - from, 0));
+        }
+    }
+
+    /**
+     * Where TAP lines go.  Each sink is a pair of streams, one for
+     * what prove(1) reads (standard out: plans, results, notes) and
+     * one for what it passes through to the user (standard error:
+     * diagnoses), plus a buffer in front of them.
+     * <p>
+     * Lines are held in the buffer until the test says something
+     * important ({@link #plan(int)}, {@link #done_subtest},
+     * {@link #done_testing}, {@link #bail_out}) or the buffer grows
+     * past {@link #limit(int)} characters, or the oldest line in it
+     * is older than {@link #delay(long)} milliseconds.  Either way,
+     * we write out whatever has piled up in the order it was printed,
+     * hopping between the two streams as often as we have to; so a
+     * diagnosis still shows up right below the {@code not ok} that
+     * caused it.
+     * <p>
+     * The time limit is only checked when a line is printed.  A test
+     * that goes quiet for a while keeps its last few lines to itself
+     * until it speaks again (or until one of the above happens).
+     * <p>
+     * An {@link #events} sink is different: it writes a binary log
+     * instead of text, for suites that print so much TAP that the
+     * printing itself is what takes time.  src/TapEvents.java turns
+     * the log back into TAP.
+     *
+     * @since 0.2_03
+     */
+    public static final class TapSink
+    {
+        /** Shared sinks for the standard streams. */
+        private static TapSink stdout, stderr;
+
+        /** Stream for TAP, or null if we keep everything in memory. */
+        private final PrintStream out;
+        /** Stream for diagnosis; may be the same as {@link #out}. */
+        private final PrintStream err;
+
+        /** Lines we have yet to write. */
+        private final StringBuilder buf = new StringBuilder();
+        /** Offsets into {@link #buf} where we hop between streams. */
+        private final List<Integer> hops = new ArrayList<Integer>();
+        /** Whether {@link #buf} starts off in the error stream. */
+        private boolean headerr = false;
+        /** Whether {@link #buf} ends in the error stream. */
+        private boolean tailerr = false;
+        /** When the oldest line in {@link #buf} came in. */
+        private long since = 0;
+
+        /** Flush when the buffer is about this big. */
+        private int limit = 1 << 16;
+        /** Flush when the oldest line is about this old (ns). */
+        private long delay = 100_000_000L;
+
+        /*
+         * The event log.  It starts with MAGIC, and then it's all
+         * records: a varint length, a type byte, and then
+         *
+         *   STRING  varint id, UTF-8 bytes (the rest of the record)
+         *   TEXT    varint us since the last record, byte 1 if it
+         *           goes to the error stream, varint string id
+         *   RESULT  varint us since the last record, byte 1 if ok
+         *           plus twice the subtest depth, zigzag varint test
+         *           number minus that of the last result, varint
+         *           string id of what follows the number
+         *
+         * Varints are unsigned LEB128, and zigzag is how a signed
+         * number goes into one, both like protobuf's.  Each string
+         * is written out once and then referred to by number; once we
+         * have INTERN of them, new strings get id 0, which refers to
+         * whatever string 0 was defined as last.
+         */
+        private static final byte[] MAGIC = { 'T', 'A', 'P', 'E', 1 };
+        private static final int STRING = 0, TEXT = 1, RESULT = 2;
+        private static final int INTERN = 1 << 16;
+
+        /** Where the event log goes, or null if we write text. */
+        private final OutputStream bin;
+        /** Ids of the strings we have written to {@link #bin}. */
+        private final Map<String, Integer> strings;
+        /** The record being put together. */
+        private byte[] rec;
+        /** How much of {@link #rec} is used. */
+        private int reclen;
+        /** Whether we throw everything away from now on. */
+        private boolean muted = false;
+
+        /** When we started writing. */
+        private long start;
+        /** When the last record was written, in us since {@link #start}. */
+        private long last = 0;
+        /** Number of the last result written. */
+        private int lastnum = 0;
+        /** Room for the length of a record. */
+        private final byte[] head = new byte[5];
+
+        private TapSink (PrintStream out, PrintStream err)
+        {
+            this.out = out;
+            this.err = err;
+            this.bin = null;
+            this.strings = null;
+        }
+
+        private TapSink (OutputStream bin)
+        {
+            this.out = this.err = null;
+            this.bin = bin;
+            this.strings = new HashMap<String, Integer>();
+            this.rec = new byte[256];
+            write(MAGIC, MAGIC.length);
+            start = System.nanoTime();
+        }
+
+        /**
+         * {@return the sink for standard output}  Diagnoses go to
+         * standard error, as prove(1) expects.  Everybody shares
+         * the same one, and whatever is left in it gets flushed
+         * when the JVM shuts down.
+         */
+        public static synchronized TapSink stdout ()
+        {
+            if (stdout == null) {
+                stdout = new TapSink(System.out, System.err);
+                Runtime.getRuntime().addShutdownHook(
+                    new Thread(stdout::flush));
+            }
+            return stdout;
+        }
+
+        /**
+         * {@return the sink for standard error}  Everything goes
+         * there, TAP and diagnoses alike.  Like {@link #stdout},
+         * this one is shared.
+         */
+        public static synchronized TapSink stderr ()
+        {
+            if (stderr == null) {
+                stderr = new TapSink(System.err, System.err);
+                Runtime.getRuntime().addShutdownHook(
+                    new Thread(stderr::flush));
+            }
+            return stderr;
+        }
+
+        /**
+         * Make a sink that writes everything into a file
+         * (encoded in UTF-8).  The file is truncated first.
+         * Remember to {@link #close} it when you are done.
+         *
+         * @param path where to write
+         * @return a fresh sink
+         * @throws FileNotFoundException if we cannot open {@code path}
+         */
+        public static TapSink file (String path) throws FileNotFoundException
+        {
+            PrintStream f = new PrintStream(
+                new FileOutputStream(path), false, StandardCharsets.UTF_8);
+            return new TapSink(f, f);
+        }
+
+        /**
+         * Make a sink that never writes anything anywhere.
+         * Everything is kept until you ask for it with
+         * {@link #toString}.
+         *
+         * @return a fresh sink
+         */
+        public static TapSink memory ()
+        {
+            return new TapSink(null, null);
+        }
+
+        /**
+         * Make a sink that writes a binary event log into a file,
+         * instead of TAP.  Each result is a handful of bytes, and each
+         * distinct description is only written once, so a big suite
+         * makes a much smaller file (and a lot less work for us).  Run
+         * {@code java TapEvents FILE} to get the TAP back.  Remember
+         * to {@link #close} it when you are done.
+         *
+         * @param path where to write
+         * @return a fresh sink
+         * @throws FileNotFoundException if we cannot open {@code path}
+         * @throws UncheckedIOException if we cannot write to it
+         */
+        public static TapSink events (String path) throws FileNotFoundException
+        {
+            return new TapSink(new BufferedOutputStream(
+                new FileOutputStream(path), 1 << 16));
+        }
+
+        /**
+         * Set the size threshold.
+         *
+         * @param chars flush when this many characters are pending;
+         *   anything less than 1 means every line is flushed at once
+         * @return this sink
+         */
+        public synchronized TapSink limit (int chars)
+        {
+            limit = chars;
+            return this;
+        }
+
+        /**
+         * Set the time threshold.
+         *
+         * @param millis flush when the oldest pending line is this
+         *   many milliseconds old
+         * @return this sink
+         */
+        public synchronized TapSink delay (long millis)
+        {
+            delay = millis * 1_000_000L;
+            return this;
+        }
+
+        /**
+         * Print a line.
+         *
+         * @param error whether this is a diagnosis (i.e. goes to
+         *   the error stream)
+         * @param line the line, without the line terminator
+         */
+        public synchronized void println (boolean error, CharSequence line)
+        {
+            if (muted) {
+                return;
+            }
+            if (bin != null) {
+                /* Results come in as text too (from a memory sink,
+                 * say); those are still worth the trouble */
+                if (error || !parse(line)) {
+                    text(error, line.toString());
+                }
+                return;
+            }
+            hop(error);
+            buf.append(line).append(System.lineSeparator());
+            spill();
+        }
+
+        /**
+         * Move everything pending in this sink over to another, in
+         * order, as if it had been printed there in the first place.
+         * This is how {@link #memory} sinks get their output out.
+         *
+         * @param to where it goes
+         */
+        public synchronized void drainTo (TapSink to)
+        {
+            if (to == this || buf.length() == 0) {
+                return;
+            }
+            synchronized (to) {
+                String nl = System.lineSeparator();
+                boolean error = headerr;
+                int from = 0;
+                for (int i = 0; i <= hops.size(); ++i) {
+                    int end = i < hops.size() ? hops.get(i) : buf.length();
+                    if (to.bin != null) {
+                        /* It has to go in one line at a time */
+                        for (int at = from; at < end; ) {
+                            int eol = buf.indexOf(nl, at);
+                            to.println(error, buf.substring(at, eol));
+                            at = eol + nl.length();
+                        }
+                    }
+                    else {
+                        to.hop(error);
+                        to.buf.append(buf, from, end);
+                    }
+                    error = !error;
+                    from = end;
+                }
+                to.spill();
+            }
+            buf.setLength(0);
+            hops.clear();
+        }
+
+        /**
+         * Get ready to write to one of the streams.
+         *
+         * @param error whether it is the error stream
+         */
+        private void hop (boolean error)
+        {
+            if (buf.length() == 0) {
+                headerr = tailerr = error;
+                since = System.nanoTime();
+            }
+            else if (error != tailerr) {
+                hops.add(buf.length());
+                tailerr = error;
+            }
+        }
+
+        /**
+         * Print a test result.  Same as printing its line, but an
+         * {@link #events} sink can skip making the line.
+         *
+         * @param ok Is it OK?
+         * @param number the test number
+         * @param indent spaces in front, four per level of subtest
+         * @param tail whatever comes after the number
+         */
+        private synchronized void result (boolean ok, int number,
+            String indent, String tail)
+        {
+            if (muted) {
+                return;
+            }
+            if (bin == null) {
+                println(false, indent + (ok ? "ok " : "not ok ")
+                    + number + tail);
+                return;
+            }
+            int id = intern(tail);
+            reclen = 0;
+            put(RESULT);
+            stamp();
+            put((ok ? 1 : 0) | indent.length() / 4 << 1);
+            int step = number - lastnum;
+            lastnum = number;
+            varint(step << 1 ^ step >> 31);
+            varint(id);
+            record();
+        }
+
+        /**
+         * Read a result back out of its line, for {@link #println}.
+         *
+         * @param line a line of TAP
+         * @return true if it was a result (and we wrote it down)
+         */
+        private boolean parse (CharSequence line)
+        {
+            int len = line.length();
+            int i = 0;
+            while (i < len && line.charAt(i) == ' ') {
+                ++i;
+            }
+            if (i % 4 != 0) {
+                return false;
+            }
+            String indent = line.subSequence(0, i).toString();
+            boolean ok;
+            if (startsWith(line, i, "ok ")) {
+                ok = true;
+                i += 3;
+            }
+            else if (startsWith(line, i, "not ok ")) {
+                ok = false;
+                i += 7;
+            }
+            else {
+                return false;
+            }
+            /* Anything that wouldn't come back out the same way
+             * (leading zeros, too many digits) stays text */
+            int j = i;
+            int number = 0;
+            while (j < len && j - i < 9
+                    && line.charAt(j) >= '0' && line.charAt(j) <= '9') {
+                number = number * 10 + line.charAt(j++) - '0';
+            }
+            if (j == i || line.charAt(i) == '0' && j - i > 1
+                    || j < len && line.charAt(j) >= '0'
+                        && line.charAt(j) <= '9') {
+                return false;
+            }
+            result(ok, number, indent, line.subSequence(j, len).toString());
+            return true;
+        }
+
+        private static boolean startsWith (CharSequence s, int at, String p)
+        {
+            if (s.length() - at < p.length()) {
+                return false;
+            }
+            for (int i = 0; i < p.length(); ++i) {
+                if (s.charAt(at + i) != p.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Write a line of text to the event log.
+         *
+         * @param error whether it goes to the error stream
+         * @param line the line
+         */
+        private void text (boolean error, String line)
+        {
+            int id = intern(line);
+            reclen = 0;
+            put(TEXT);
+            stamp();
+            put(error ? 1 : 0);
+            varint(id);
+            record();
+        }
+
+        /**
+         * Find the id of a string, writing it out if it is new.
+         *
+         * @param text the string
+         * @return its id
+         */
+        private int intern (String text)
+        {
+            Integer id = strings.get(text);
+            if (id != null) {
+                return id;
+            }
+            int k = strings.size() < INTERN ? strings.size() + 1 : 0;
+            if (k > 0) {
+                strings.put(text, k);
+            }
+            byte[] utf = text.getBytes(StandardCharsets.UTF_8);
+            reclen = 0;
+            put(STRING);
+            varint(k);
+            for (byte b : utf) {
+                put(b);
+            }
+            record();
+            return k;
+        }
+
+        /**
+         * Add the time since the last record to the record.  It's in
+         * microseconds; most results take less than one, and then the
+         * time fits in a single byte.
+         */
+        private void stamp ()
+        {
+            long now = (System.nanoTime() - start) / 1000;
+            long dt = Math.max(0, now - last);
+            last += dt;
+            while ((dt & ~0x7fL) != 0) {
+                put((int) (dt & 0x7f) | 0x80);
+                dt >>>= 7;
+            }
+            put((int) dt);
+        }
+
+        private void varint (int v)
+        {
+            while ((v & ~0x7f) != 0) {
+                put(v & 0x7f | 0x80);
+                v >>>= 7;
+            }
+            put(v);
+        }
+
+        private void put (int b)
+        {
+            if (reclen == rec.length) {
+                rec = Arrays.copyOf(rec, reclen * 2);
+            }
+            rec[reclen++] = (byte) b;
+        }
+
+        /** Write out the record, with its length in front. */
+        private void record ()
+        {
+            int n = 0;
+            int v = reclen;
+            while ((v & ~0x7f) != 0) {
+                head[n++] = (byte) (v & 0x7f | 0x80);
+                v >>>= 7;
+            }
+            head[n++] = (byte) v;
+            write(head, n);
+            write(rec, reclen);
+        }
+
+        private void write (byte[] b, int n)
+        {
+            try {
+                bin.write(b, 0, n);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Stop taking new lines.  What we already have can still be
+         * flushed or drained; this is how {@link TapTest#run} walks
+         * away from a test that won't stop talking.
+         */
+        private synchronized void mute ()
+        {
+            muted = true;
+        }
+
+        /** Flush if we have held on to things for too long. */
+        private void spill ()
+        {
+            if (out != null && (buf.length() >= limit
+                    || System.nanoTime() - since >= delay)) {
+                flush();
+            }
+        }
+
+        /**
+         * Write out everything pending, in order.
+         * This does nothing on a {@link #memory} sink.
+         */
+        public synchronized void flush ()
+        {
+            if (bin != null) {
+                try {
+                    bin.flush();
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            if (out == null || buf.length() == 0) {
+                return;
             }
-            mess.append(a); mess.append("\n");
+            boolean error = headerr;
+            int from = 0;
+            for (int i = 0; i <= hops.size(); ++i) {
+                int to = i < hops.size() ? hops.get(i) : buf.length();
+                PrintStream s = error ? err : out;
+                s.print(buf.substring(from, to));
+                s.flush();
+                error = !error;
+                from = to;
+            }
+            buf.setLength(0);
+            hops.clear();
+        }
 
-            mess.append(" expected: ");
-            if (b != null) {
-                mess.append(b.getClass().getName()); mess.append(" - ");
+        /**
+         * Flush, then close the file if we opened one.
+         * The standard streams are left alone.
+         */
+        public synchronized void close ()
+        {
+            flush();
+            if (out != null && out != System.out && out != System.err) {
+                out.close();
+            }
+            if (bin != null) {
+                try {
+                    bin.close();
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
             }
-            mess.append(b); mess.append("\n");
         }
-        return ok (good, mess.toString(), depth + 1);
+
+        /**
+         * {@return everything pending, standard out and error
+         * interleaved}  For a {@link #memory} sink, that means
+         * everything that has ever been printed to it.
+         */
+        @Override
+        public synchronized String toString ()
+        {
+            return buf.toString();
+        }
     }
 }
 /* vim:set sts=4 sw=4 et ts=8 ai si: */
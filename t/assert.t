@@ -0,0 +1,150 @@
+#!perl
+
+use 5.006;
+use strict;
+use warnings;
+
+use File::Spec::Functions qw(catfile);
+use File::Temp qw(tempdir);
+use Test::More tests => 18;
+
+my $tmp = tempdir(CLEANUP => 1);
+note ("I am compiling things in " . $tmp);
+
+my $fh;
+open $fh, '>', catfile ($tmp, 'Deep.java') or die "Deep.java: $!";
+print $fh <<'EOF';
+import java.util.*;
+public class Deep {
+    public static void main(String[] args) {
+        TapTest t = new TapTest();
+        t.locate(false);
+        t.plan(4);
+        t.is_deeply(Map.of(1, List.of(2, 3)), Map.of(1, List.of(2, 3)),
+            "same map");
+        t.is_deeply("x".repeat(150) + "A", "x".repeat(150) + "B",
+            "long strings");
+        t.is_deeply(List.of(1, 2), Set.of(1, 2), "list and set");
+        t.is_deeply(List.of(1, List.of(2, 3)), List.of(1, List.of(2, 4)),
+            "nested");
+        t.done_testing();
+    }
+}
+EOF
+close $fh;
+
+open $fh, '>', catfile ($tmp, 'Props.java') or die "Props.java: $!";
+print $fh <<'EOF';
+import java.util.*;
+public class Props {
+    public static void main(String[] args) {
+        TapTest t = new TapTest();
+        t.locate(false);
+        t.seed(42);
+        t.plan(8);
+        long bad = t.each(List.of(2, 3, 4, 5), "%s is prime",
+            n -> n == 2 || n % 2 != 0);
+        t.each(List.of("1", "x"), "parses %s",
+            s -> Integer.parseInt(s) > 0);
+        t.note("each failed " + bad);
+        t.forall("doubles", TapTest.Gen.doubles(-5, 5), d -> d < 2.5);
+        t.seed(1);
+        t.forall("doubles under 0", TapTest.Gen.doubles(-5, -1),
+            d -> d < -1);
+        t.done_testing();
+    }
+}
+EOF
+close $fh;
+
+open $fh, '>', catfile ($tmp, 'Bench.java') or die "Bench.java: $!";
+print $fh <<'EOF';
+public class Bench {
+    static long sink = 0;
+    public static void main(String[] args) {
+        TapTest t = new TapTest();
+        t.locate(false);
+        t.bench_time(20, 50);
+        t.plan(3);
+        Runnable tick = () -> ++sink;
+        t.bench("slow enough", () -> Long.toString(sink), 1e9);
+        t.bench_ops("runnable", tick, 1);
+        t.bench_ops("impossible", tick, 1e15);
+        t.done_testing();
+    }
+}
+EOF
+close $fh;
+
+open $fh, '>', catfile ($tmp, 'Yaml.java') or die "Yaml.java: $!";
+print $fh <<'EOF';
+import java.util.*;
+public class Yaml {
+    public static void main(String[] args) {
+        TapTest t = new TapTest();
+        t.locate(false);
+        t.version(13);
+        t.plan(3);
+        t.is(Map.of(1, 2), Map.of(1, 3), "maps");
+        Map<String, Object> self = new HashMap<String, Object>();
+        self.put("me", self);
+        t.is(self, Map.of(), "a map in itself");
+        t.pass("still going");
+        t.done_testing();
+    }
+}
+EOF
+close $fh;
+
+system "javac -d $tmp src/TapTest.java "
+    . join (' ', map { catfile ($tmp, "$_.java") } qw(Deep Props Bench Yaml));
+cmp_ok ($? >> 8, '==', 0, 'javac exits normal');
+
+my $out = `java -cp $tmp Deep 2>&1`;
+like ($out, qr/^ok 1 - same map$/m, 'is_deeply passes the same map');
+like ($out, qr/^# Verdict: x{97}\.\.\. != x{97}\.\.\.$/m,
+    'long strings that differ late are not a type difference');
+like ($out, qr/^# Verdict: type differs$/m,
+    'list and set of the same size differ in type');
+like ($out, qr/^# Verdict: element 1 of element 1 differs$/m,
+    'nested difference is found');
+
+$out = `java -cp $tmp Props 2>&1`;
+like ($out, qr/^not ok 3 - 4 is prime$/m, 'each fails the case that fails');
+like ($out, qr/^# each failed 1$/m, 'each counts its failures');
+like ($out,
+    qr/^not ok 6 - parses x\n(?:#.*\n)*# java\.lang\.NumberFormatException/m,
+    'each says what a case threw');
+like ($out, qr/^# Counterexample: 2\.5\d*$/m,
+    'forall shrinks doubles all the way')
+    or diag ($out);
+like ($out, qr/^# Shrunk \d+ times from: 4\.557/m,
+    'forall says what it shrunk from');
+like ($out, qr/^ok 8 - doubles under 0$/m,
+    'doubles never makes its upper bound');
+
+$out = `java -cp $tmp Bench 2>&1`;
+like ($out, qr/^ok 1 - slow enough$/m, 'bench passes within budget');
+like ($out, qr/^# slow enough: [\d.]+ ns\/op \+\/- [\d.]+ \(99%\)/m,
+    'bench notes how long it took');
+like ($out, qr/^ok 2 - runnable$/m, 'bench_ops takes a Runnable');
+like ($out,
+    qr/^not ok 3 - impossible\n(?:#.*\n)*# .*budget: at least 10{15} ops\/s$/m,
+    'bench_ops fails over budget')
+    or diag ($out);
+
+$out = `java -cp $tmp Yaml 2>&1`;
+like ($out, qr/^not ok 1 - maps
+  ---
+  message: "maps"
+  severity: "fail"
+  got: "\{1=2\}"
+  expected: "\{1=3\}"
+  type:
+    got: "java\.util\.[\w.\$]+"
+    expected: "java\.util\.[\w.\$]+"
+  \.\.\.$/m, 'YAML shows a map as a string')
+    or diag ($out);
+like ($out, qr/^  got: "\{me=\(this Map\)\}"$/m,
+    'YAML copes with a map in itself');
+like ($out, qr/^ok 3 - still going$/m, 'is() did not throw');
@@ -0,0 +1,88 @@
+#!perl
+
+use 5.006;
+use strict;
+use warnings;
+
+use File::Spec::Functions qw(catfile);
+use File::Temp qw(tempdir);
+use Test::More tests => 8;
+
+my $tmp = tempdir(CLEANUP => 1);
+note ("I am compiling things in " . $tmp);
+
+my $fh;
+open $fh, '>', catfile ($tmp, 'Log.java') or die "Log.java: $!";
+print $fh <<'EOF';
+public class Log {
+    public static void main(String[] args) throws Exception {
+        TapTest t = new TapTest();
+        if (args.length > 0) {
+            t.sink(TapTest.TapSink.events(args[0]));
+        }
+        t.locate(false);
+        t.version(13);
+        t.plan(5);
+        t.pass("one");
+        t.is("a", "b", "letters");
+        t.note("in between");
+        t.ok(false, "TODO later");
+        t.init_subtest(4);
+        t.pass("inner");
+        t.is(1, 2, "numbers");
+        t.done_subtest();
+        t.pass("last");
+        t.done_testing();
+        t.sink().close();
+    }
+}
+EOF
+close $fh;
+
+system "javac -d $tmp src/TapTest.java src/TapEvents.java "
+    . catfile ($tmp, 'Log.java');
+cmp_ok ($? >> 8, '==', 0, 'javac exits normal');
+
+my $log = catfile ($tmp, 'log.events');
+my $err = catfile ($tmp, 'err');
+my $plain = `java -cp $tmp Log 2>$err`;
+my $plain_err = do { local $/; open my $in, '<', $err or die "$err: $!"; <$in> };
+like ($plain, qr/^not ok 2 - letters$/m, 'plain TAP has the failure');
+
+my $quiet = `java -cp $tmp Log $log 2>&1`;
+is ($quiet, '', 'nothing printed into the log goes out');
+
+my $out = `java -cp $tmp TapEvents $log 2>$err`;
+cmp_ok ($? >> 8, '==', 0, 'TapEvents exits normal');
+is ($out, $plain, 'log renders as the plain TAP');
+is (do { local $/; open my $in, '<', $err or die "$err: $!"; <$in> },
+    $plain_err, 'diagnoses render as the plain ones');
+
+$out = `java -cp $tmp TapEvents --failures $log 2>&1`;
+is ($out, <<'TAP', 'failures keep their YAML blocks, and nothing else');
+not ok 2 - letters
+  ---
+  message: "letters"
+  severity: "fail"
+  got: "a"
+  expected: "b"
+  type:
+    got: "java.lang.String"
+    expected: "java.lang.String"
+  ...
+    not ok 2 - numbers
+      ---
+      message: "numbers"
+      severity: "fail"
+      got: "1"
+      expected: "2"
+      type:
+        got: "int"
+        expected: "int"
+      ...
+not ok 4 - subtest 4
+TAP
+
+my @kept = grep { /^ *not ok / && !/# TODO/ } split /^/, $plain;
+is (join ('', grep { /^ *(?:ok|not ok) / } split /^/, $out),
+    join ('', @kept), 'the same failed results as in the plain TAP');
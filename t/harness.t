@@ -0,0 +1,97 @@
+#!perl
+
+use 5.006;
+use strict;
+use warnings;
+
+use File::Spec::Functions qw(catfile);
+use File::Temp qw(tempdir);
+use Test::More tests => 12;
+
+my $tmp = tempdir(CLEANUP => 1);
+note ("I am compiling things in " . $tmp);
+
+my $fh;
+open $fh, '>', catfile ($tmp, 'Fine.java') or die "Fine.java: $!";
+print $fh <<'EOF';
+public class Fine {
+    public void test1(TapTest t) { t.pass("one"); t.pass("two"); }
+    public void test2(TapTest t) { t.ok(false, "TODO three"); }
+    public static void main(String[] args) {
+        TapTest t = new TapTest();
+        int[] plan = {2, 1};
+        t.plan(plan);
+        int error = t.run(new int[] {1, 2}, plan, Fine::new);
+        t.done_testing();
+        System.exit(error & ~TapTest.EX_BADPLAN);
+    }
+}
+EOF
+close $fh;
+
+open $fh, '>', catfile ($tmp, 'Sour.java') or die "Sour.java: $!";
+print $fh <<'EOF';
+public class Sour {
+    public static void main(String[] args) {
+        TapTest t = new TapTest();
+        t.plan(3);
+        t.pass("one");
+        t.fail("two");
+        t.done_testing();
+    }
+}
+EOF
+close $fh;
+
+open $fh, '>', catfile ($tmp, 'Fresh.java') or die "Fresh.java: $!";
+print $fh <<'EOF';
+import java.io.File;
+public class Fresh {
+    static int runs = 0;
+    public static void main(String[] args) {
+        TapTest t = new TapTest();
+        t.plan(2);
+        t.is(++runs, 1, "statics start out clean");
+        t.ok(new File("Fresh.java").isFile(), "runs where the client does");
+        t.done_testing();
+    }
+}
+EOF
+close $fh;
+
+system "javac -d $tmp src/TapTest.java src/TapHarness.java src/TapDaemon.java "
+    . join (' ', map { catfile ($tmp, "$_.java") } qw(Fine Sour Fresh));
+cmp_ok ($? >> 8, '==', 0, 'javac exits normal');
+
+my $out = `java -cp $tmp TapHarness --cp $tmp Fine 2>/dev/null`;
+cmp_ok ($? >> 8, '==', 0, 'harness passes a good test');
+like ($out, qr/^Fine \.\. ok$/m, 'good test is ok');
+
+$out = `java -cp $tmp TapHarness --cp $tmp Fine Sour 2>/dev/null`;
+cmp_ok ($? >> 8, '==', 1, 'harness fails a bad test');
+like ($out, qr/^Sour \.\. Failed 1\/2 subtests$/m, 'bad test failed');
+like ($out, qr/Bad plan\.  You planned 3 tests but ran 2\./,
+    'bad plan reported');
+
+my $sock = catfile ($tmp, 'sock');
+my $pid = open my $daemon, '-|', 'java', '-cp', $tmp, 'TapDaemon',
+    '--serve', '--socket', $sock
+    or die "TapDaemon: $!";
+like (scalar <$daemon>, qr/^TapDaemon listening on /, 'daemon is up');
+cmp_ok ((stat $sock)[2] & 07777, '==', 0600, 'only we may connect');
+
+$out = `java -cp $tmp TapHarness --daemon $sock --cp $tmp Fine Sour 2>/dev/null`;
+cmp_ok ($? >> 8, '==', 1, 'daemon fails a bad test');
+like ($out, qr/^Fine \.\. ok$/m, 'good test is ok in the daemon');
+like ($out, qr/^Sour \.\. Failed 1\/2 subtests$/m,
+    'bad test failed in the daemon');
+
+chdir $tmp or die "$tmp: $!";
+$out = `java -cp . TapHarness --daemon $sock --cp . Fresh Fresh 2>&1`;
+chdir '/';
+like ($out, qr/^All tests successful\.$/m,
+    'each run starts fresh, in our directory')
+    or diag ($out);
+
+kill 'TERM', $pid;
+close $daemon;
@@ -0,0 +1,157 @@
+#!perl
+
+use 5.006;
+use strict;
+use warnings;
+
+use File::Spec::Functions qw(catfile);
+use File::Temp qw(tempdir);
+use Test::More tests => 11;
+
+my $tmp = tempdir(CLEANUP => 1);
+note ("I am compiling things in " . $tmp);
+
+my $tests = join '', map {
+    "    public void test$_(TapTest t) { seen.add($_); t.pass(\"$_\"); }\n"
+} 1 .. 12;
+
+my $fh;
+open $fh, '>', catfile ($tmp, 'Pick.java') or die "Pick.java: $!";
+print $fh <<'EOF' . $tests . '}';
+import java.util.*;
+import java.util.stream.*;
+public class Pick {
+    static List<Integer> seen = new ArrayList<Integer>();
+    /* parse_cmd() the way it used to be: each test against each range */
+    static int[] filter(List<int[]> ranges, int start, int avail) {
+        return IntStream.rangeClosed(1, avail).filter(t -> {
+            for (int j = ranges.size() - 1; j >= 0; --j) {
+                int[] r = ranges.get(j);
+                if (r[1] <= t && t <= r[2]) {
+                    return r[0] > 0;
+                }
+            }
+            return ranges.stream().noneMatch(r -> r[0] > 0);
+        }).map(t -> t + start - 1).toArray();
+    }
+    static List<Integer> each(TapTest.Selection s) {
+        List<Integer> a = new ArrayList<Integer>();
+        s.forEach(a::add);
+        return a;
+    }
+    static List<Integer> ran(TapTest.Selection s) {
+        TapTest t = new TapTest();
+        t.sink(TapTest.TapSink.memory());
+        seen.clear();
+        t.run(s, n -> 1, Pick::new);
+        return seen;
+    }
+    static void kind(TapTest t, String name, TapTest.Selection s,
+            List<Integer> want) {
+        t.is(Arrays.stream(s.toArray()).boxed().collect(Collectors.toList()),
+            want, name + ": toArray()");
+        t.is(s.stream().boxed().collect(Collectors.toList()), want,
+            name + ": stream()");
+        t.is(each(s), want, name + ": iterator()");
+        t.is(s.size(), want.size(), name + ": size()");
+        t.is(ran(s), want, name + ": run()");
+    }
+    public static void main(String[] args) {
+        TapTest t = new TapTest();
+        t.locate(false);
+        t.plan(16);
+        Random r = new Random(1);
+        int bad = 0;
+        for (int k = 0; k < 20000; ++k) {
+            int start = r.nextInt(3), avail = 1 + r.nextInt(60);
+            List<int[]> ranges = new ArrayList<int[]>();
+            List<String> argv = new ArrayList<String>();
+            int color = +1;
+            for (int n = r.nextInt(6); n > 0; --n) {
+                int c = r.nextBoolean() ? +1 : -1;
+                if (c != color) {
+                    argv.add(c > 0 ? "-i" : "-x");
+                    color = c;
+                }
+                int lo = 1 + r.nextInt(avail);
+                int hi = lo - 1 + r.nextInt(avail - lo + 2);
+                ranges.add(new int[] { c, lo, hi });
+                argv.add((lo + start - 1) + ".." + (hi + start - 1));
+            }
+            int[] got = TapTest.parse_cmd("Pick",
+                argv.toArray(new String[0]), start, avail);
+            if (!Arrays.equals(got, filter(ranges, start, avail))) {
+                if (++bad <= 3) {
+                    t.diag("%s (from %d of %d): %s", argv, start, avail,
+                        Arrays.toString(got));
+                }
+            }
+        }
+        t.is(bad, 0, "parse_cmd() agrees with a plain filter");
+
+        /* The inner .. of -x 6..8 splits one run in two */
+        kind(t, "runs", TapTest.select("Pick",
+            new String[] { "2..11", "-x", "6..8" }, 1, 12),
+            List.of(2, 3, 4, 5, 9, 10, 11));
+        kind(t, "bitmap", TapTest.Selection.of(new int[] { 1, 3, 5, 7, 12 }),
+            List.of(1, 3, 5, 7, 12));
+        kind(t, "list", TapTest.Selection.of(new int[] { 7, 2, 5 }),
+            List.of(7, 2, 5));
+        t.done_testing();
+    }
+EOF
+close $fh;
+
+open $fh, '>', catfile ($tmp, 'Again.java') or die "Again.java: $!";
+print $fh <<'EOF';
+public class Again {
+    public void test1(TapTest t) { t.pass("one"); }
+    public void test2(TapTest t) { t.fail("two"); }
+    public void test3(TapTest t) { t.pass("three"); }
+    public static void main(String[] args) {
+        TapTest.Selection todo = TapTest.select("Again", args, 1, 3);
+        if (todo == null) {
+            System.exit(2);
+        }
+        TapTest t = new TapTest();
+        t.locate(false);
+        if (todo.state() != null) {
+            t.history(todo.state());
+        }
+        t.run(todo, n -> 1, Again::new);
+        t.done_testing();
+    }
+}
+EOF
+close $fh;
+
+system "javac -d $tmp src/TapTest.java "
+    . join (' ', map { catfile ($tmp, "$_.java") } qw(Pick Again));
+cmp_ok ($? >> 8, '==', 0, 'javac exits normal');
+
+my $out = `java -cp $tmp Pick 2>&1`;
+cmp_ok ($? >> 8, '==', 0, 'Pick exits normal');
+like ($out, qr/^ok 16 - list: run\(\)$/m, 'all the way through');
+unlike ($out, qr/^not ok/m, 'selections come out as they should')
+    or diag ($out);
+
+my $state = catfile ($tmp, 'state');
+$out = `java -cp $tmp Again --state $state 2>&1`;
+like ($out, qr/^not ok 2 - two$/m, 'test2 fails the first time')
+    or diag ($out);
+ok (-s $state, '--state keeps a history');
+
+$out = `java -cp $tmp Again --state $state --failed 2>&1`;
+like ($out, qr/^not ok 1 - two$/m, '--failed runs the test that failed')
+    or diag ($out);
+unlike ($out, qr/one|three/, 'and nothing else');
+
+$out = `java -cp $tmp Again --state $state --failed-first 2>&1`;
+like ($out, qr/\Anot ok 1 - two\nok 2 - one\nok 3 - three$/m,
+    '--failed-first runs it first, then the rest')
+    or diag ($out);
+
+$out = `java -cp $tmp Again --failed 2>&1`;
+cmp_ok ($? >> 8, '==', 2, '--failed needs a --state');
+like ($out, qr/^error: --failed and --failed-first need a --state$/m,
+    'and says so');
@@ -0,0 +1,71 @@
+#!perl
+
+use 5.006;
+use strict;
+use warnings;
+
+use File::Spec::Functions qw(catfile);
+use File::Temp qw(tempdir);
+use Test::More tests => 10;
+
+my $tmp = tempdir(CLEANUP => 1);
+note ("I am compiling things in " . $tmp);
+
+my $fh;
+open $fh, '>', catfile ($tmp, 'Slow.java') or die "Slow.java: $!";
+print $fh <<'EOF';
+public class Slow {
+    static void nap(TapTest t, long ms) {
+        try {
+            Thread.sleep(ms);
+        }
+        catch (InterruptedException e) {
+            t.pass("woke up");
+        }
+    }
+    public void test1(TapTest t) { t.pass("one"); t.pass("two"); }
+    public void test2(TapTest t) {
+        t.pass("slow start");
+        nap(t, 5000);
+        t.pass("slow end");
+    }
+    public void test3(TapTest t) { nap(t, 400); t.pass("three"); }
+    public static void main(String[] args) {
+        TapTest t = new TapTest();
+        t.locate(false);
+        if (args[0].equals("test")) {
+            t.timeout(1000);
+        }
+        else {
+            t.timeout(0, 1000);
+        }
+        int[] plan = {3, 2, 1};
+        t.plan(plan);
+        int error = t.run(new int[] {1, 2, 3}, plan, Slow::new);
+        t.done_testing();
+        System.exit(error & TapTest.EX_TIMEOUT);
+    }
+}
+EOF
+close $fh;
+
+system "javac -d $tmp src/TapTest.java " . catfile ($tmp, 'Slow.java');
+cmp_ok ($? >> 8, '==', 0, 'javac exits normal');
+
+my $out = `java -cp $tmp Slow test 2>&1`;
+cmp_ok ($? >> 8, '==', 0x40, 'a test that runs over sets EX_TIMEOUT');
+like ($out, qr/^# test2 timed out after 1000 ms$/m, 'and says so')
+    or diag ($out);
+like ($out, qr/^ok 4 - slow start\n(?:#.*\n)*not ok 5 - test2 timed out/m,
+    'the rest of it is numbered on from where it stopped');
+unlike ($out, qr/slow end|woke up/, 'what it does later is thrown away');
+like ($out, qr/^ok 6 - three$/m, 'the next test still runs');
+
+$out = `java -cp $tmp Slow suite 2>&1`;
+cmp_ok ($? >> 8, '==', 0x40, 'a suite that runs over sets EX_TIMEOUT');
+like ($out, qr/^# test2 ran out of time after 1000 ms for the whole run$/m,
+    'and says so')
+    or diag ($out);
+like ($out, qr/^not ok 6 - test3 ran out of time/m,
+    'tests that never started fail');
+unlike ($out, qr/slow end|woke up|three/, 'and say nothing else');